@@ -0,0 +1,38 @@
+package bench;
+
+import whoApp.data.IRecord;
+import whoApp.data.Patient;
+import whoApp.data.PcrTest;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// record type is a benchmark parameter, records are built from id only
+final class BenchRecords {
+    static final String PATIENT = "Patient";
+    static final String PCR_TEST = "PcrTest";
+
+    private BenchRecords() {
+    }
+
+    @SuppressWarnings("rawtypes")
+    static Class recordClass(String recordType) {
+        return PATIENT.equals(recordType) ? Patient.class : PcrTest.class;
+    }
+
+    static IRecord<?> create(String recordType, int id, int version) {
+        if (PATIENT.equals(recordType)) {
+            return new Patient("FN" + version, "LN" + id, LocalDate.of(2000, 1, 1).plusDays(id % 10_000), "" + id);
+        }
+        return new PcrTest(id, "" + id, LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(id),
+                id % 2 == 0, id % 100, "v" + version);
+    }
+
+    static void deleteFiles(String baseName) {
+        String[] extensions = {".dat.dat", ".dat_heap.dat", "_hash.dat", "_overflow.dat", "_overflow_heap.dat", ".dat", "_heap.dat"};
+        for (String extension : extensions) {
+            new File(baseName + extension).delete();
+        }
+    }
+}
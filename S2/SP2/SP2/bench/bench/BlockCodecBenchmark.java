@@ -0,0 +1,78 @@
+package bench;
+
+import file.heapfile.Block;
+import org.openjdk.jmh.annotations.*;
+import whoApp.data.IRecord;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// full blocks at capacities of heap file blocks, bytes per block: -prof gc (gc.alloc.rate.norm)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class BlockCodecBenchmark {
+
+    @Param({"1024", "4096", "8192"})
+    public int blockSize;
+
+    @Param({BenchRecords.PCR_TEST, BenchRecords.PATIENT})
+    public String recordType;
+
+    private Class recordClass;
+    private int capacity;
+    private Block block; // decoded records
+    private Block readBlock; // raw records from fromBytes
+    private byte[] blockBytes;
+    private ByteBuffer blockBuffer; // direct, same as block buffers of file storage
+
+    @Setup(Level.Trial)
+    public void createBlock() {
+        recordClass = BenchRecords.recordClass(recordType);
+        IRecord prototype = BenchRecords.create(recordType, 0, 0);
+        capacity = (blockSize - Integer.BYTES) / prototype.getSize(); // validCount
+
+        block = new Block(capacity, recordClass);
+        for (int id = 0; id < capacity; id++) {
+            block.addRecord(BenchRecords.create(recordType, id, 0));
+        }
+        blockBytes = block.getBytes();
+        readBlock = new Block(capacity, recordClass).fromBytes(blockBytes);
+        blockBuffer = ByteBuffer.allocateDirect(blockSize);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return block.getBytes();
+    }
+
+    // records stay raw until used
+    @Benchmark
+    public Object fromBytes() {
+        return new Block(capacity, recordClass).fromBytes(blockBytes);
+    }
+
+    @Benchmark
+    public Object fromBytesDecodeAll() {
+        return new Block(capacity, recordClass).fromBytes(blockBytes).getRecords();
+    }
+
+    @Benchmark
+    public ByteBuffer writeTo() {
+        blockBuffer.clear();
+        block.writeTo(blockBuffer);
+        return blockBuffer;
+    }
+
+    // raw slots are copied without decoding
+    @Benchmark
+    public ByteBuffer writeToUndecoded() {
+        blockBuffer.clear();
+        readBlock.writeTo(blockBuffer);
+        return blockBuffer;
+    }
+}
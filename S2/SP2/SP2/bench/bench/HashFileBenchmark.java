@@ -0,0 +1,133 @@
+package bench;
+
+import file.hashfile.HashFile;
+import org.openjdk.jmh.annotations.*;
+import whoApp.data.IRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// needs jmh-core and jmh-generator-annprocess on classpath, allocation rate: -prof gc
+// every iteration starts with dataset only, records inserted or deleted in previous iteration are reverted
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class HashFileBenchmark {
+    private static final String FILE_NAME = "bench_hash";
+
+    @Param({"1024", "4096"})
+    public int blockSize;
+
+    @Param({"512", "1024"})
+    public int overflowBlockSize;
+
+    @Param({BenchRecords.PCR_TEST, BenchRecords.PATIENT})
+    public String recordType;
+
+    @Param({"10000", "100000"})
+    public int datasetSize;
+
+    private HashFile hashFile;
+    private IRecord[] dataset;
+    private Random random;
+    private int nextInsertId; // ids above dataset
+    private int nextDeleteId; // dataset is deleted in order
+    private int version;
+
+    // split and merge count of measured operations
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ResizeCounters {
+        public long splits;
+        public long merges;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            splits = 0;
+            merges = 0;
+        }
+
+        void count(HashFile hashFile, long splitsBefore, long mergesBefore) {
+            splits += hashFile.getSplitCount() - splitsBefore;
+            merges += hashFile.getMergeCount() - mergesBefore;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        if (overflowBlockSize > blockSize) {
+            throw new IllegalStateException("Overflow block size " + overflowBlockSize + " larger than block size " + blockSize);
+        }
+
+        BenchRecords.deleteFiles(FILE_NAME);
+        hashFile = new HashFile(FILE_NAME, blockSize, overflowBlockSize, BenchRecords.recordClass(recordType));
+
+        dataset = new IRecord[datasetSize];
+        ArrayList records = new ArrayList<>(datasetSize);
+        for (int id = 0; id < datasetSize; id++) {
+            dataset[id] = BenchRecords.create(recordType, id, 0);
+            records.add(dataset[id]);
+        }
+        hashFile.insertAll(records);
+
+        random = new Random(42);
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @Setup(Level.Iteration)
+    public void resetDataset() {
+        for (int id = datasetSize; id < nextInsertId; id++) {
+            hashFile.delete(BenchRecords.create(recordType, id, 0));
+        }
+        for (int id = 0; id < nextDeleteId; id++) {
+            hashFile.insert(dataset[id]);
+        }
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFile() {
+        hashFile.close();
+        BenchRecords.deleteFiles(FILE_NAME);
+    }
+
+    @Benchmark
+    public int insert(ResizeCounters counters) {
+        long splits = hashFile.getSplitCount();
+        long merges = hashFile.getMergeCount();
+        int index = hashFile.insert(BenchRecords.create(recordType, nextInsertId++, 0));
+        counters.count(hashFile, splits, merges);
+        return index;
+    }
+
+    @Benchmark
+    public Object get() {
+        return hashFile.get(dataset[random.nextInt(datasetSize)]);
+    }
+
+    @Benchmark
+    public boolean edit() {
+        return hashFile.edit(BenchRecords.create(recordType, random.nextInt(datasetSize), ++version));
+    }
+
+    @Benchmark
+    public boolean delete(ResizeCounters counters) {
+        if (nextDeleteId == datasetSize) {
+            resetDataset(); // whole dataset deleted within one iteration
+        }
+
+        long splits = hashFile.getSplitCount();
+        long merges = hashFile.getMergeCount();
+        boolean deleted = hashFile.delete(dataset[nextDeleteId++]);
+        counters.count(hashFile, splits, merges);
+        return deleted;
+    }
+}
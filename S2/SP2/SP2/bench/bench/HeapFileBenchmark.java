@@ -0,0 +1,99 @@
+package bench;
+
+import file.heapfile.HeapFile;
+import org.openjdk.jmh.annotations.*;
+import whoApp.data.IRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// needs jmh-core and jmh-generator-annprocess on classpath, allocation rate: -prof gc
+// every iteration starts with dataset only, records inserted or deleted in previous iteration are reverted
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class HeapFileBenchmark {
+    private static final String FILE_NAME = "bench_heap";
+
+    @Param({"1024", "4096"})
+    public int blockSize;
+
+    @Param({BenchRecords.PCR_TEST, BenchRecords.PATIENT})
+    public String recordType;
+
+    @Param({"10000", "100000"})
+    public int datasetSize;
+
+    private HeapFile heapFile;
+    private IRecord[] dataset;
+    private int[] blockIndexes; // block of every dataset record
+    private ArrayList<Integer> insertedBlocks; // block of every record inserted above dataset
+    private Random random;
+    private int nextInsertId;
+    private int nextDeleteId; // dataset is deleted in order
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        BenchRecords.deleteFiles(FILE_NAME);
+        heapFile = new HeapFile(FILE_NAME, blockSize, BenchRecords.recordClass(recordType));
+
+        dataset = new IRecord[datasetSize];
+        blockIndexes = new int[datasetSize];
+        for (int id = 0; id < datasetSize; id++) {
+            dataset[id] = BenchRecords.create(recordType, id, 0);
+            blockIndexes[id] = heapFile.insert(dataset[id]);
+        }
+
+        insertedBlocks = new ArrayList<>();
+        random = new Random(42);
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @Setup(Level.Iteration)
+    public void resetDataset() {
+        for (int i = 0; i < insertedBlocks.size(); i++) {
+            heapFile.delete(insertedBlocks.get(i), BenchRecords.create(recordType, datasetSize + i, 0));
+        }
+        for (int id = 0; id < nextDeleteId; id++) {
+            blockIndexes[id] = heapFile.insert(dataset[id]);
+        }
+        insertedBlocks.clear();
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFile() {
+        heapFile.close();
+        BenchRecords.deleteFiles(FILE_NAME);
+    }
+
+    @Benchmark
+    public int insert() {
+        int index = heapFile.insert(BenchRecords.create(recordType, nextInsertId++, 0));
+        insertedBlocks.add(index);
+        return index;
+    }
+
+    @Benchmark
+    public Object get() {
+        int id = random.nextInt(datasetSize);
+        return heapFile.get(blockIndexes[id], dataset[id]);
+    }
+
+    @Benchmark
+    public boolean delete() {
+        if (nextDeleteId == datasetSize) {
+            resetDataset(); // whole dataset deleted within one iteration
+        }
+        int id = nextDeleteId++;
+        return heapFile.delete(blockIndexes[id], dataset[id]);
+    }
+}
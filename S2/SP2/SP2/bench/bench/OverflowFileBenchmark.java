@@ -0,0 +1,121 @@
+package bench;
+
+import file.hashfile.OverflowFile;
+import org.openjdk.jmh.annotations.*;
+import whoApp.data.IRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// needs jmh-core and jmh-generator-annprocess on classpath, allocation rate: -prof gc
+// dataset is spread over chains of same length, record id decides its chain
+// every iteration starts with dataset only, records inserted or deleted in previous iteration are reverted
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class OverflowFileBenchmark {
+    private static final String FILE_NAME = "bench_overflow";
+
+    @Param({"512", "1024"})
+    public int blockSize;
+
+    @Param({BenchRecords.PCR_TEST, BenchRecords.PATIENT})
+    public String recordType;
+
+    @Param({"10000", "100000"})
+    public int datasetSize;
+
+    @Param({"10", "100"})
+    public int recordsPerChain;
+
+    private OverflowFile overflowFile;
+    private IRecord[] dataset;
+    private int[] chainStarts;
+    private Random random;
+    private int nextInsertId; // ids above dataset
+    private int nextDeleteId; // dataset is deleted in order
+    private int version;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        BenchRecords.deleteFiles(FILE_NAME);
+        overflowFile = new OverflowFile(FILE_NAME, blockSize, BenchRecords.recordClass(recordType));
+
+        dataset = new IRecord[datasetSize];
+        chainStarts = new int[Math.max(1, datasetSize / recordsPerChain)];
+        for (int id = 0; id < datasetSize; id++) {
+            dataset[id] = BenchRecords.create(recordType, id, 0);
+            int chain = chainOf(id);
+            if (id < chainStarts.length) {
+                chainStarts[chain] = overflowFile.insertToStart(dataset[id]);
+            } else {
+                overflowFile.insertToChain(chainStarts[chain], dataset[id]);
+            }
+        }
+
+        random = new Random(42);
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @Setup(Level.Iteration)
+    public void resetDataset() {
+        for (int id = datasetSize; id < nextInsertId; id++) {
+            overflowFile.delete(chainStarts[chainOf(id)], BenchRecords.create(recordType, id, 0));
+        }
+        for (int id = 0; id < nextDeleteId; id++) {
+            overflowFile.insertToChain(chainStarts[chainOf(id)], dataset[id]);
+        }
+        nextInsertId = datasetSize;
+        nextDeleteId = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeFile() {
+        overflowFile.close();
+        BenchRecords.deleteFiles(FILE_NAME);
+    }
+
+    private int chainOf(int id) {
+        return id % chainStarts.length;
+    }
+
+    @Benchmark
+    public boolean insert() {
+        int id = nextInsertId++;
+        return overflowFile.insertToChain(chainStarts[chainOf(id)], BenchRecords.create(recordType, id, 0));
+    }
+
+    @Benchmark
+    public Object get() {
+        int id = random.nextInt(datasetSize);
+        return overflowFile.get(chainStarts[chainOf(id)], dataset[id]);
+    }
+
+    @Benchmark
+    public boolean edit() {
+        int id = random.nextInt(datasetSize);
+        return overflowFile.edit(chainStarts[chainOf(id)], BenchRecords.create(recordType, id, ++version));
+    }
+
+    @Benchmark
+    public boolean delete() {
+        if (nextDeleteId == datasetSize) {
+            resetDataset(); // whole dataset deleted within one iteration
+        }
+        int id = nextDeleteId++;
+        return overflowFile.delete(chainStarts[chainOf(id)], dataset[id]);
+    }
+
+    // chain walk without early exit, blocks read per operation grow with chain length
+    @Benchmark
+    public ArrayList chainScan() {
+        return overflowFile.getBlockChain(chainStarts[random.nextInt(chainStarts.length)]);
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import whoApp.data.IRecord;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// ns/op per record, bytes per record: -prof gc (gc.alloc.rate.norm)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class RecordCodecBenchmark {
+
+    @Param({BenchRecords.PCR_TEST, BenchRecords.PATIENT})
+    public String recordType;
+
+    private IRecord record;
+    private byte[] recordBytes;
+    private ByteBuffer recordBuffer; // direct, same as block buffers of file storage
+
+    @Setup(Level.Trial)
+    public void createRecord() {
+        record = BenchRecords.create(recordType, 123_456, 7);
+        recordBytes = record.getBytes();
+        recordBuffer = ByteBuffer.allocateDirect(record.getSize());
+        record.writeTo(recordBuffer);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return record.getBytes();
+    }
+
+    @Benchmark
+    public Object fromBytes() {
+        return ((IRecord) record.createClass()).fromBytes(recordBytes);
+    }
+
+    @Benchmark
+    public ByteBuffer writeTo() {
+        recordBuffer.clear();
+        record.writeTo(recordBuffer);
+        return recordBuffer;
+    }
+
+    @Benchmark
+    public Object readFrom() {
+        return ((IRecord) record.createClass()).readFrom(recordBuffer, 0);
+    }
+}
@@ -0,0 +1,108 @@
+package file.hashfile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// chain length and record count of every bucket, histogram is updated from difference on every bucket write
+class ChainStatistics {
+    private int bucketCount;
+    private int[] chainLengths = new int[16];
+    private int[] recordCounts = new int[16];
+    private int[] chainLengthHistogram = new int[4]; // buckets per overflow chain length
+    private int maxChainLength;
+
+    synchronized void update(int index, int chainLength, int recordCount) {
+        if (index >= bucketCount) {
+            ensureCapacity(index + 1);
+            for (int i = bucketCount; i <= index; i++) {
+                addToHistogram(0, 1); // new bucket starts empty
+            }
+            bucketCount = index + 1;
+        }
+
+        addToHistogram(chainLengths[index], -1);
+        addToHistogram(chainLength, 1);
+        chainLengths[index] = chainLength;
+        recordCounts[index] = recordCount;
+    }
+
+    // last bucket after merge
+    synchronized void removeLast() {
+        if (bucketCount == 0) {
+            return;
+        }
+        bucketCount--;
+        addToHistogram(chainLengths[bucketCount], -1);
+        chainLengths[bucketCount] = 0;
+        recordCounts[bucketCount] = 0;
+    }
+
+    synchronized void clear() {
+        bucketCount = 0;
+        Arrays.fill(chainLengths, 0);
+        Arrays.fill(recordCounts, 0);
+        Arrays.fill(chainLengthHistogram, 0);
+        maxChainLength = 0;
+    }
+
+    synchronized int getBucketCount() {
+        return bucketCount;
+    }
+
+    synchronized int getOverflowBucketCount() {
+        return bucketCount - chainLengthHistogram[0];
+    }
+
+    synchronized int getMaxChainLength() {
+        return maxChainLength;
+    }
+
+    synchronized int[] getChainLengthHistogram() {
+        return Arrays.copyOf(chainLengthHistogram, maxChainLength + 1);
+    }
+
+    synchronized int getRecordCount(int index) {
+        return index < bucketCount ? recordCounts[index] : 0;
+    }
+
+    synchronized void writeTo(DataOutputStream dos) throws IOException {
+        dos.writeInt(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            dos.writeInt(chainLengths[i]);
+            dos.writeInt(recordCounts[i]);
+        }
+    }
+
+    synchronized void readFrom(DataInputStream dis) throws IOException {
+        clear();
+        int count = dis.readInt();
+        for (int i = 0; i < count; i++) {
+            int chainLength = dis.readInt();
+            update(i, chainLength, dis.readInt());
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > chainLengths.length) {
+            int newLength = Math.max(size, chainLengths.length * 2);
+            chainLengths = Arrays.copyOf(chainLengths, newLength);
+            recordCounts = Arrays.copyOf(recordCounts, newLength);
+        }
+    }
+
+    private void addToHistogram(int chainLength, int delta) {
+        if (chainLength >= chainLengthHistogram.length) {
+            chainLengthHistogram = Arrays.copyOf(chainLengthHistogram, Math.max(chainLength + 1, chainLengthHistogram.length * 2));
+        }
+        chainLengthHistogram[chainLength] += delta;
+
+        if (delta > 0 && chainLength > maxChainLength) {
+            maxChainLength = chainLength;
+        }
+        while (maxChainLength > 0 && chainLengthHistogram[maxChainLength] == 0) {
+            maxChainLength--;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package file.hashfile;
+
+import whoApp.data.IRecord;
+
+import java.util.ArrayDeque;
+
+// fills main block and then overflow blocks of one bucket, overflow block is written once when next one is known
+// indexes come from blocks of source chains already read, new block is allocated only when none is free
+class ChainWriter<T extends IRecord<T>> {
+    private final OverflowFile<T> overflowFile;
+    private final ArrayDeque<Integer> freeIndexes;
+    private final HashBlock<T> mainBlock;
+
+    private LinkedBlock<T> current;
+    private int currentIndex;
+    private int recordCount;
+    private int overflowBlockCount;
+
+    ChainWriter(OverflowFile<T> overflowFile, ArrayDeque<Integer> freeIndexes, HashBlock<T> mainBlock) {
+        this.overflowFile = overflowFile;
+        this.freeIndexes = freeIndexes;
+        this.mainBlock = mainBlock;
+        this.current = null;
+        this.currentIndex = -1;
+    }
+
+    void add(T record) {
+        recordCount++;
+        if (current == null) {
+            if (mainBlock.isPartiallyEmpty()) {
+                mainBlock.addRecord(record);
+                return;
+            }
+            currentIndex = nextIndex();
+            mainBlock.setNextBlock(currentIndex);
+            mainBlock.setChainBlock(overflowBlockCount, currentIndex);
+            current = overflowFile.createNewBlock();
+            overflowBlockCount++;
+        } else if (!current.isPartiallyEmpty()) {
+            int nextIndex = nextIndex();
+            current.setNextBlock(nextIndex);
+            overflowFile.saveBlock(currentIndex, current);
+            currentIndex = nextIndex;
+            mainBlock.setChainBlock(overflowBlockCount, currentIndex);
+            current = overflowFile.createNewBlock();
+            overflowBlockCount++;
+        }
+        current.addRecord(record);
+    }
+
+    // main block is saved by caller
+    void finish() {
+        if (current != null) {
+            current.setNextBlock(-1);
+            overflowFile.saveBlock(currentIndex, current);
+        } else {
+            mainBlock.setNextBlock(-1);
+        }
+        mainBlock.setRecordCount(recordCount);
+        mainBlock.setOverflowBlockCount(overflowBlockCount);
+    }
+
+    private int nextIndex() {
+        Integer index = freeIndexes.poll();
+        return index != null ? index : overflowFile.allocateBlock();
+    }
+}
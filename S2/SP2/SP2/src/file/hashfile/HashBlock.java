@@ -2,17 +2,54 @@ package file.hashfile;
 
 import whoApp.data.IRecord;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class HashBlock<T extends IRecord<T>> extends LinkedBlock<T> {
+    public static final int MAX_DIRECTORY_SIZE = 16;
+
     private int recordCount;
     private int overflowBlockCount;
+    private final int[] chainDirectory; // overflow block index + 1 per chain position, 0 = not known
 
     public HashBlock(int capacity, Class<T> recordClass) {
+        this(capacity, recordClass, 0);
+    }
+
+    public HashBlock(int capacity, Class<T> recordClass, int directorySize) {
         super(capacity, recordClass);
         this.recordCount = 0;
         this.overflowBlockCount = 0;
+        this.chainDirectory = new int[directorySize];
+    }
+
+    // directory uses only bytes left after records, old files have zeros there
+    // no space is reserved for it, so record capacity and file layout stay as before
+    public static int directorySize(int blockSize, int capacity, int recordSize) {
+        int unused = blockSize - 4 * Integer.BYTES - capacity * recordSize;
+        return Math.max(0, Math.min(MAX_DIRECTORY_SIZE, unused / Integer.BYTES));
+    }
+
+    public void setChainBlock(int position, int blockIndex) {
+        if (position >= 0 && position < chainDirectory.length) {
+            chainDirectory[position] = blockIndex + 1;
+        }
+    }
+
+    // known overflow indexes from start of chain, links are still authoritative
+    public int[] getKnownChain() {
+        int length = Math.min(overflowBlockCount, chainDirectory.length);
+        int known = 0;
+        while (known < length && chainDirectory[known] > 0) {
+            known++;
+        }
+
+        int[] indexes = new int[known];
+        for (int i = 0; i < known; i++) {
+            indexes[i] = chainDirectory[i] - 1;
+        }
+        return indexes;
     }
 
     public int getRecordCount() {
@@ -58,58 +95,53 @@ public class HashBlock<T extends IRecord<T>> extends LinkedBlock<T> {
     @Override
     public int getSize() {
         try {
-            // LinkedBlock + recordCount + overflowBlockCount
-            return super.getSize() + 2 * Integer.BYTES;
+            // LinkedBlock + recordCount + overflowBlockCount + chainDirectory
+            return super.getSize() + (2 + chainDirectory.length) * Integer.BYTES;
         } catch (Exception e) {
             throw new RuntimeException("Error calculating block size", e);
         }
     }
 
     @Override
-    public byte[] getBytes() {
-        ByteArrayOutputStream hlpByteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream hlpOutStream = new DataOutputStream(hlpByteArrayOutputStream);
-
-        try {
-            byte[] superBytes = super.getBytes();
-            hlpOutStream.write(superBytes);
+    public void writeTo(ByteBuffer buffer) {
+        super.writeTo(buffer);
 
-            // recordCount
-            hlpOutStream.writeInt(recordCount);
+        // recordCount
+        buffer.putInt(recordCount);
 
-            // overflowBlockCount
-            hlpOutStream.writeInt(overflowBlockCount);
+        // overflowBlockCount
+        buffer.putInt(overflowBlockCount);
 
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion to byte array.");
+        for (int entry : chainDirectory) {
+            buffer.putInt(entry);
         }
-
-        return hlpByteArrayOutputStream.toByteArray();
     }
 
     @Override
-    public HashBlock<T> fromBytes(byte[] bytes) {
-        ByteArrayInputStream hlpByteArrayInputStream = new ByteArrayInputStream(bytes);
-        DataInputStream hlpInStream = new DataInputStream(hlpByteArrayInputStream);
+    public HashBlock<T> readFrom(ByteBuffer buffer, int offset) {
+        super.readFrom(buffer, offset);
 
-        try {
-            byte[] superBytes = new byte[super.getSize()];
-            hlpInStream.readFully(superBytes);
-            super.fromBytes(superBytes);
+        int position = offset + super.getSize();
 
-            // recordCount
-            this.recordCount = hlpInStream.readInt();
+        // recordCount
+        this.recordCount = buffer.getInt(position);
 
-            // overflowBlockCount
-            this.overflowBlockCount = hlpInStream.readInt();
+        // overflowBlockCount
+        this.overflowBlockCount = buffer.getInt(position + Integer.BYTES);
 
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion from byte array.", e);
+        position += 2 * Integer.BYTES;
+        for (int i = 0; i < chainDirectory.length; i++) {
+            chainDirectory[i] = buffer.getInt(position + i * Integer.BYTES);
         }
 
         return this;
     }
 
+    @Override
+    public HashBlock<T> fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes), 0);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -126,9 +158,10 @@ public class HashBlock<T extends IRecord<T>> extends LinkedBlock<T> {
     @Override
     public ArrayList<T> clear() {
         ArrayList<T> r =  getRecords();
-        validCount = 0;
+        dropRecords();
         recordCount = 0;
         overflowBlockCount = 0;
+        Arrays.fill(chainDirectory, 0);
         clearNextBlock();
 
         return r;
@@ -1,26 +1,89 @@
 package file.hashfile;
 
+import file.heapfile.Block;
 import file.heapfile.HeapFile;
+import file.storage.BlockStorage;
+import file.storage.BufferPool;
+import file.storage.FileOptions;
+import file.storage.WriteAheadLog;
 import whoApp.data.IRecord;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-
-public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+public final class HashFile<T extends IRecord<T>> extends HeapFile<T> {
     private OverflowFile<T> overflowFile;
-    private int hashPower;
-    private int splitPointer;
-    private int recordCount;
+    private volatile int hashPower;
+    private volatile int splitPointer;
+    private volatile int recordCount;
     private String hashFileName;
-    private static final int INITIAL_BLOCK_COUNT = 2;
-    private static final double MAX_DENSITY = 0.8;
+    private final String metricsName;
+    private WriteAheadLog log; // null = no logging
+    private final ThreadLocal<long[]> commitSequences = ThreadLocal.withInitial(() -> new long[1]); // last commit of thread not awaited yet
+    private int chainDirectorySize; // overflow indexes kept in main block
+    private boolean chainPrefetch;
+    private int defragmentCursor; // next bucket checked by defragment, guarded by resize lock
+    private int resizeDirection; // 1 splitting, -1 merging, 0 density inside band, guarded by resize lock
+    private final MaintenanceScheduler maintenance; // null = split, merge and shake run in foreground
+    private final int splitBudget; // source blocks moved per insert or delete, 0 = whole splits
+    // split in progress, records of source still move to target, lookups of target keys check source too
+    private volatile int migrationSource = -1;
+    private volatile int migrationTarget = -1;
+    private int migrationCursor = NO_MIGRATION; // next source block, guarded by resize lock
+    private int migrationTail = -1; // last target overflow block seen, guarded by resize lock
+    private long migrationNanos;
+    private final ChainStatistics chainStatistics = new ChainStatistics();
+    private boolean statisticsExact; // metadata was saved by close, statistics match blocks
+
+    // shared by every operation, exclusive for checkpoint and close
+    private final ReentrantReadWriteLock operationLock = new ReentrantReadWriteLock();
+    // commits are appended one at a time, resize commit publishes structure logged by later commits
+    private final Object commitMonitor = new Object();
+    private int[] committedStructure; // hashPower, splitPointer, blockCount, migrationCursor
+    // held only while split/merge move splitPointer and hashPower
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    // one split or merge at a time
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    // bucket latches guard main block and its overflow chain
+    private final ReentrantReadWriteLock[] bucketLocks;
+    // bumped on every exclusive unlatch, async reads are valid only if it did not change
+    private final AtomicLongArray bucketVersions;
+    // async writers need latches across several reads and writes
+    private final ExecutorService asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    static final int INITIAL_BLOCK_COUNT = 2;
+    private static final int MAIN_FILE_ID = 0;
+    private static final int OVERFLOW_FILE_ID = 1;
+    static final double MAX_DENSITY = 0.8;
     private static final double MIN_DENSITY = 0.5;
+    // background resize goes past threshold so it is not started again by next operation
+    private static final double SPLIT_TARGET_DENSITY = 0.75;
+    private static final double MERGE_TARGET_DENSITY = 0.55;
+    // writer splits itself when background thread falls this far behind
+    private static final double OVERLOAD_DENSITY = 0.95;
+    private static final int LOCK_STRIPES = 64;
+    static final int NO_MIGRATION = -1; // also written by loader
+    private static final int MIGRATE_MAIN = -2;
 
 
     public HashFile(String fileName, int blockSize, int overflowBlockSize, Class<T> recordClass) throws IOException {
-        super(Paths.get("").toAbsolutePath().resolve(fileName + ".dat").toString(), blockSize, recordClass); //convert to absolute path
+        this(fileName, blockSize, overflowBlockSize, recordClass, createDefaultOptions());
+    }
+
+    public HashFile(String fileName, int blockSize, int overflowBlockSize, Class<T> recordClass, FileOptions options) throws IOException {
+        super(Paths.get("").toAbsolutePath().resolve(fileName + ".dat").toString(), blockSize, recordClass, options); //convert to absolute path
         //super(fileName, blockSize, recordClass);
         if (blockSize < overflowBlockSize) {
             throw new IOException("Block size must be greater than overflow block size.");
@@ -30,11 +93,21 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
         }
 
         this.recordsPerBlock = (blockSize - 4 * Integer.BYTES) / recordSize; // validCount, nextBlock, recordCount, overflowBlockCount
+        this.splitBudget = options.getSplitBudget();
+        this.chainDirectorySize = HashBlock.directorySize(blockSize, recordsPerBlock, recordSize);
+        // layout of main block is kept, prefetch needs at least two known chain blocks
+        this.chainPrefetch = options.isChainPrefetch() && chainDirectorySize >= 2;
 
         this.hashPower = 0;
         this.splitPointer = 0;
         this.recordCount = 0;
-        this.overflowFile = new OverflowFile<>(fileName + "_overflow", overflowBlockSize, recordClass);
+        this.bucketLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            bucketLocks[i] = new ReentrantReadWriteLock();
+        }
+        this.bucketVersions = new AtomicLongArray(LOCK_STRIPES);
+        this.overflowFile = new OverflowFile<>(fileName + "_overflow", overflowBlockSize, recordClass, options); // same storage mode and pool
+        this.metricsName = Paths.get(fileName).getFileName().toString();
         this.hashFileName = fileName + "_hash.dat";
 
         loadHashFile();
@@ -46,282 +119,1002 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
                 blockCount++;
             }
         }
+
+        boolean cleanOnDisk = statisticsExact;
+        if (options.isWriteAheadLog()) {
+            openLog(fileName);
+        }
+
+        if (!statisticsExact || chainStatistics.getBucketCount() != blockCount) {
+            rebuildChainStatistics(); // older metadata or file not closed
+            countRecords();
+        }
+        if (cleanOnDisk) {
+            markHashFileNotClean();
+        }
+
+        // split interrupted by crash is completed before first operation, its buckets are last split ones
+        if (migrationCursor != NO_MIGRATION) {
+            this.migrationSource = splitPointer > 0 ? splitPointer - 1 : getHashEdge() / 2 - 1;
+            this.migrationTarget = blockCount - 1;
+            resizeLock.lock();
+            try {
+                finishMigration();
+            } finally {
+                resizeLock.unlock();
+            }
+            awaitCommit();
+        }
+
+        this.maintenance = options.isBackgroundMaintenance() ? new MaintenanceScheduler(this, metricsName) : null;
     }
 
     @Override
     public int insert(T record) {
-        int index = getHashIndex(record.hashCode());
-
-        HashBlock<T> block = loadBlock(index);
-        insertIntoMainBlockOrOverflow(block, record);
-        saveBlockToFile(index, block);
+        int index;
+        Lock operation = writerLock();
+        operation.lock();
+        try {
+            index = lockBucket(record.hashCode(), true);
+            try {
+                HashBlock<T> block = loadBlock(index);
+                insertIntoMainBlockOrOverflow(block, record);
+                saveBlockToFile(index, block);
+            } finally {
+                unlockBucket(index, true);
+            }
 
-        while (calculateDensity() > MAX_DENSITY) {
-            split();
+            if (splitBudget > 0) {
+                advanceSplit(splitBudget);
+            } else if (maintenance == null || calculateDensity() > OVERLOAD_DENSITY) {
+                splitIfNeeded();
+            } else if (calculateDensity() > MAX_DENSITY) {
+                maintenance.requestResize();
+            }
+            awaitCommit();
+        } finally {
+            operation.unlock();
         }
 
+        checkpointIfNeeded();
         return index;
     }
 
+    // file grows to final size first, then every bucket is written once
+    public int insertAll(Collection<T> records) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        int inserted = 0;
+        Lock operation = writerLock();
+        operation.lock();
+        resizeLock.lock(); // bucket indexes stay valid for whole batch
+        try {
+            int finalRecordCount = recordCount + records.size();
+            int targetBlockCount = (int) Math.ceil((finalRecordCount / MAX_DENSITY - overflowFile.getCapacity()) / recordsPerBlock);
+            while (blockCount < targetBlockCount) {
+                split();
+            }
+
+            // group by bucket
+            ArrayList<ArrayList<T>> buckets = new ArrayList<>(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                buckets.add(null);
+            }
+            for (T record : records) {
+                int index = getHashIndex(record.hashCode());
+                if (buckets.get(index) == null) {
+                    buckets.set(index, new ArrayList<>());
+                }
+                buckets.get(index).add(record);
+            }
+
+            for (int index = 0; index < buckets.size(); index++) {
+                ArrayList<T> bucketRecords = buckets.get(index);
+                if (bucketRecords == null) {
+                    continue;
+                }
+
+                bucketLock(index).writeLock().lock();
+                try {
+                    HashBlock<T> block = loadBlock(index);
+                    if (block == null) {
+                        continue;
+                    }
+                    insertAllIntoChain(block, bucketRecords);
+                    saveBlockToFile(index, block);
+                    inserted += bucketRecords.size();
+                } finally {
+                    unlatchBucket(index, true);
+                }
+            }
+
+            // overflow capacity can drop during splits
+            while (calculateDensity() > MAX_DENSITY) {
+                split();
+            }
+
+            awaitCommit();
+        } finally {
+            resizeLock.unlock();
+            operation.unlock();
+        }
+
+        checkpointIfNeeded();
+        return inserted;
+    }
+
     public boolean delete(T record) {
-        int index = getHashIndex(record.hashCode());
+        byte[] key = Block.encodeKey(record);
+        boolean removed;
+
+        Lock operation = writerLock();
+        operation.lock();
+        try {
+            int index = lockBucket(record.hashCode(), true);
+            try {
+                removed = deleteFromBucket(index, record, key);
+
+                int source = migrationSourceOf(index);
+                if (!removed && source != -1) {
+                    removed = deleteFromBucket(source, record, key);
+                }
+            } finally {
+                unlockBucket(index, true);
+            }
+
+            boolean advanced = splitBudget > 0 && advanceSplit(splitBudget);
+            if (removed) {
+                if (maintenance == null) {
+                    mergeIfNeeded();
+                } else if (calculateDensity() < MIN_DENSITY) {
+                    maintenance.requestResize();
+                }
+            }
+            if (removed || advanced) {
+                awaitCommit();
+            }
+        } finally {
+            operation.unlock();
+        }
+
+        if (removed) {
+            checkpointIfNeeded();
+        }
+        return removed;
+    }
+
+    private boolean deleteFromBucket(int index, T record, byte[] key) {
         HashBlock<T> block = loadBlock(index);
 
-        boolean removed = block.deleteRecord(record);
+        boolean removed = block.deleteRecord(record, key);
 
         if (!removed && block.hasNextBlock()) {
-            removed = overflowFile.delete(block.getNextBlock(), record);
+            removed = overflowFile.delete(block, record, key);
         }
 
         if (removed) {
             block.decrementRecordCount();
-            this.recordCount--;
+            addToRecordCount(-1);
 
             saveBlockToFile(index, block);
-            shake(index);
-
-            while (calculateDensity() < MIN_DENSITY && blockCount > INITIAL_BLOCK_COUNT) {
-                merge();
+            if (maintenance == null) {
+                shake(index);
+            } else if (canShake(block)) {
+                maintenance.requestShake(index);
             }
         }
-
         return removed;
     }
 
     public T get(T record) {
-        int index = getHashIndex(record.hashCode());
-        HashBlock<T> block = loadBlock(index);
+        byte[] key = Block.encodeKey(record);
+        metrics.recordLookup();
 
-        T found = block.getRecord(record);
-        if (found == null && block.hasNextBlock()) {
-            found = overflowFile.get(block.getNextBlock(), record);
+        operationLock.readLock().lock();
+        try {
+            int index = lockBucket(record.hashCode(), false);
+            try {
+                T found = getFromBucket(index, record, key);
+
+                int source = migrationSourceOf(index);
+                if (found == null && source != -1) {
+                    found = getFromBucket(source, record, key);
+                }
+
+                return found;
+            } finally {
+                unlockBucket(index, false);
+            }
+        } finally {
+            operationLock.readLock().unlock();
         }
+    }
+
+    private T getFromBucket(int index, T record, byte[] key) {
+        HashBlock<T> block = loadReadOnlyBlock(index);
 
+        T found = block.getRecord(record, key);
+        if (found == null && block.hasNextBlock()) {
+            found = overflowFile.get(block, record, key);
+        }
         return found;
     }
 
+    // chain is rewritten in place, structure is not changed
     public boolean edit(T editedRecord) {
-        int index = getHashIndex(editedRecord.hashCode());
+        byte[] key = Block.encodeKey(editedRecord);
+        boolean edited;
+
+        operationLock.readLock().lock();
+        try {
+            int index = lockBucket(editedRecord.hashCode(), true);
+            try {
+                edited = editInBucket(index, editedRecord, key);
+
+                int source = migrationSourceOf(index);
+                if (!edited && source != -1) {
+                    edited = editInBucket(source, editedRecord, key);
+                }
+            } finally {
+                unlockBucket(index, true);
+            }
+
+            if (edited) {
+                awaitCommit();
+            }
+        } finally {
+            operationLock.readLock().unlock();
+        }
+
+        if (edited) {
+            checkpointIfNeeded();
+        }
+        return edited;
+    }
+
+    private boolean editInBucket(int index, T editedRecord, byte[] key) {
         HashBlock<T> block = loadBlock(index);
 
-        boolean edited = block.editRecord(editedRecord);
+        boolean edited = block.editRecord(editedRecord, key);
         if (edited) {
             saveBlockToFile(index, block);
         } else {
             if (block.hasNextBlock()) {
-                edited = overflowFile.edit(block.getNextBlock(), editedRecord);
+                edited = overflowFile.edit(block, editedRecord, key);
             }
         }
-
         return edited;
     }
 
+    // bucket is read without latch, result is checked against bucket version and falls back to get
+    public CompletableFuture<T> getAsync(T record) {
+        byte[] key = Block.encodeKey(record);
+        int code = record.hashCode();
+        int index = currentHashIndex(code);
+        long version = bucketVersions.get(index % LOCK_STRIPES);
+        if (migrationSourceOf(index) != -1) {
+            return CompletableFuture.supplyAsync(() -> get(record), asyncExecutor); // two buckets need latches
+        }
+
+        return loadBlockAsync(index).thenCompose(block -> {
+            if (block == null) {
+                return CompletableFuture.completedFuture((T) null);
+            }
+
+            HashBlock<T> hashBlock = (HashBlock<T>) block;
+            T found = hashBlock.getRecord(record, key);
+            if (found != null || !hashBlock.hasNextBlock()) {
+                return CompletableFuture.completedFuture(found);
+            }
+            return overflowFile.getAsync(hashBlock, record, key, overflowFile.getBlockCount());
+        }).handle((found, error) -> {
+            if (error == null && isBucketUnchanged(code, index, version)) {
+                metrics.recordLookup(); // fallback get counts itself
+                return CompletableFuture.completedFuture(found);
+            }
+            return CompletableFuture.supplyAsync(() -> get(record), asyncExecutor);
+        }).thenCompose(future -> future);
+    }
+
+    public CompletableFuture<Integer> insertAsync(T record) {
+        return CompletableFuture.supplyAsync(() -> insert(record), asyncExecutor);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync(T record) {
+        return CompletableFuture.supplyAsync(() -> delete(record), asyncExecutor);
+    }
+
+    private boolean isBucketUnchanged(int code, int index, long version) {
+        bucketLock(index).readLock().lock();
+        try {
+            return bucketVersions.get(index % LOCK_STRIPES) == version && currentHashIndex(code) == index;
+        } finally {
+            bucketLock(index).readLock().unlock();
+        }
+    }
+
+    // failure of background maintenance is thrown after files are closed
     @Override
     public void close() {
+        asyncExecutor.close(); // waits for async writers, they need operation lock
+        RuntimeException maintenanceFailure = null;
+        if (maintenance != null) {
+            try {
+                maintenance.close();
+            } catch (RuntimeException e) {
+                maintenanceFailure = e;
+            }
+        }
+        operationLock.writeLock().lock();
         try {
-            saveHashFile(); // hash
+            resizeLock.lock();
+            try {
+                finishMigration();
+            } finally {
+                resizeLock.unlock();
+            }
+            awaitCommit();
+            if (log != null) {
+                checkpoint();
+            }
+            saveHashFile(true); // hash
             super.close();  // heap
         } catch (IOException e) {
             throw new RuntimeException("Error closing hash file", e);
         } finally {
             overflowFile.close();
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    System.out.println("Error closing write ahead log!");
+                }
+            }
+            operationLock.writeLock().unlock();
+        }
+        if (maintenanceFailure != null) {
+            throw maintenanceFailure;
         }
     }
 
-    private int getHashIndex(int code) {
-        int index = hash(code, hashPower);
-        if (index < 0 || index >= blockCount) {
-            System.out.println("Index out of range");
+    private void openLog(String fileName) throws IOException {
+        this.log = new WriteAheadLog(fileName + "_wal.dat", options.getGroupCommitSize(),
+                options.getGroupCommitDelay(), WriteAheadLog.DEFAULT_CHECKPOINT_SIZE);
+
+        byte[] metadata = log.recover(new BlockStorage[] {file, overflowFile.getStorage()});
+        if (metadata != null) {
+            // not closed properly, state of last commit
+            ByteBuffer buffer = ByteBuffer.wrap(metadata);
+            this.hashPower = buffer.getInt();
+            this.splitPointer = buffer.getInt();
+            this.recordCount = buffer.getInt();
+            this.blockCount = buffer.getInt();
+            int overflowBlockCount = buffer.getInt();
+            if (buffer.hasRemaining()) {
+                this.migrationCursor = buffer.getInt();
+            }
+
+            overflowFile.rebuildEmptyBlocks(overflowBlockCount, findUsedOverflowBlocks(overflowBlockCount));
+            rebuildChainStatistics();
+            countRecords();
+            statisticsExact = true;
+            checkpoint();
         }
-        if (index < splitPointer) {
-            index = hash(code, hashPower + 1);
+
+        this.file = log.attach(file, MAIN_FILE_ID, blockSize);
+        overflowFile.attachLog(log, OVERFLOW_FILE_ID);
+        publishStructure();
+    }
+
+    // record count can include operations not yet logged, it is counted again on recovery
+    private byte[] getMetadata() {
+        ByteBuffer buffer = ByteBuffer.allocate(6 * Integer.BYTES);
+        buffer.putInt(committedStructure[0]);
+        buffer.putInt(committedStructure[1]);
+        buffer.putInt(recordCount);
+        buffer.putInt(committedStructure[2]);
+        buffer.putInt(overflowFile.getBlockCount());
+        buffer.putInt(committedStructure[3]);
+        return buffer.array();
+    }
+
+    private boolean[] findUsedOverflowBlocks(int overflowBlockCount) {
+        boolean[] used = new boolean[overflowBlockCount];
+        for (int i = 0; i < blockCount; i++) {
+            HashBlock<T> block = loadBlock(i);
+            int next = block != null ? block.getNextBlock() : -1;
+            while (next >= 0 && next < overflowBlockCount && !used[next]) {
+                used[next] = true;
+                LinkedBlock<T> overflowBlock = overflowFile.loadBlock(next);
+                next = overflowBlock != null ? overflowBlock.getNextBlock() : -1;
+            }
         }
-        return index;
+        return used;
     }
 
-    private int hash(int code, int power) {
-        int hash = Math.abs(code % ((int) Math.pow(2, power) * INITIAL_BLOCK_COUNT));
-        if ((hash == 21 || hash == 6) && (code == 166 || code == 198 || code == 213 || code == 230)) {
-            System.out.print("");
+    // writes of this thread are appended before its latches are released, so log order follows latch order
+    // only resize changes structure, it holds resize lock, other operations log structure of last resize commit
+    private void commit() {
+        if (log == null) {
+            return;
+        }
+        synchronized (commitMonitor) {
+            if (resizeLock.isHeldByCurrentThread()) {
+                publishStructure();
+            }
+            try {
+                long sequence = log.commit(getMetadata());
+                long[] pending = commitSequences.get();
+                pending[0] = Math.max(pending[0], sequence);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error writing write ahead log.", e);
+            }
         }
-        return hash;
+        overflowFile.releaseFreedBlocks();
     }
 
-    private void split() {
-        int oldSplitPointer = splitPointer;
-        int oldHashEdge = getHashEdge();     // N = INITIAL_BLOCK_COUNT * 2^hashPower
-        int oldHashPower = hashPower;        // i
+    private void publishStructure() {
+        committedStructure = new int[] {hashPower, splitPointer, blockCount, migrationCursor};
+    }
 
-        int newBlockIndex = blockCount;
-        HashBlock<T> newBlock = createNewBlock();
-        blockCount++;
+    // called without latches, fsync is shared with commits of other threads, waits only for commits of this thread
+    private void awaitCommit() {
+        if (log == null) {
+            return;
+        }
+        long[] pending = commitSequences.get();
+        long sequence = pending[0];
+        if (sequence == 0) {
+            return;
+        }
+        pending[0] = 0;
+        try {
+            log.awaitSync(sequence);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error syncing write ahead log.", e);
+        }
+    }
 
-        HashBlock<T> oldBlock = loadBlock(oldSplitPointer);
-        if (oldBlock == null) {
+    // not called under read lock, checkpoint needs exclusive lock
+    private void checkpointIfNeeded() {
+        if (log == null) {
             return;
         }
+        try {
+            if (log.needsCheckpoint()) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing checkpoint.", e);
+        }
+    }
+
+    // data and metadata files are made durable, then log is cleared
+    public void checkpoint() throws IOException {
+        operationLock.writeLock().lock();
+        try {
+            if (log == null) {
+                return;
+            }
+            log.sync();
+            file.flush();
+            saveHeapFile();
+            overflowFile.flush();
+            saveHashFile(false);
+            log.reset();
+        } finally {
+            operationLock.writeLock().unlock();
+        }
+    }
+
+    private ReentrantReadWriteLock bucketLock(int index) {
+        return bucketLocks[index % LOCK_STRIPES];
+    }
+
+    // latches bucket of record, retries when split or merge moved record before latch was taken
+    // while records still move into bucket, source bucket is latched first as split step does
+    private int lockBucket(int code, boolean exclusive) {
+        while (true) {
+            int index = currentHashIndex(code);
+            int source = migrationSourceOf(index);
+            if (source != -1) {
+                latchBucket(source, exclusive);
+            }
+            latchBucket(index, exclusive);
+
+            // pointer can not move past latched bucket
+            if (currentHashIndex(code) == index && migrationSourceOf(index) == source) {
+                return index;
+            }
+            unlatchBucket(index, exclusive);
+            if (source != -1) {
+                unlatchBucket(source, exclusive);
+            }
+        }
+    }
+
+    // split step needs both latches, so source can not change while they are held
+    private void unlockBucket(int index, boolean exclusive) {
+        int source = migrationSourceOf(index);
+        unlatchBucket(index, exclusive);
+        if (source != -1) {
+            unlatchBucket(source, exclusive);
+        }
+    }
+
+    private int migrationSourceOf(int index) {
+        return index == migrationTarget ? migrationSource : -1;
+    }
 
-        ArrayList<LinkedBlock<T>> allOverflowBlocks = overflowFile.getBlockChain(oldBlock.getNextBlock());
-        ArrayList<T> allRecords = new ArrayList<>();
-        allRecords.addAll(oldBlock.removeRecords());
-        for (LinkedBlock<T> ob : allOverflowBlocks) {
-            allRecords.addAll(ob.removeRecords());
+    private void latchBucket(int index, boolean exclusive) {
+        if (exclusive) {
+            bucketLock(index).writeLock().lock();
+        } else {
+            bucketLock(index).readLock().lock();
         }
+    }
 
-        splitPointer++;
-        if (splitPointer >= oldHashEdge) {
-            hashPower++;
-            splitPointer = 0;
+    private void unlatchBucket(int index, boolean exclusive) {
+        if (exclusive) {
+            commit();
+            bucketVersions.incrementAndGet(index % LOCK_STRIPES);
+            bucketLock(index).writeLock().unlock();
+        } else {
+            bucketLock(index).readLock().unlock();
         }
+    }
 
-        ArrayList<T> oldBlockRecords = new ArrayList<>();
-        ArrayList<T> newBlockRecords = new ArrayList<>();
+    private int currentHashIndex(int code) {
+        structureLock.readLock().lock();
+        try {
+            return getHashIndex(code);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
 
-        for (T record : allRecords) {
-            int code = record.hashCode();
+    // writers share operation lock, with log too, every thread logs its own writes
+    private Lock writerLock() {
+        return operationLock.readLock();
+    }
 
-            int hNext = hash(code, oldHashPower + 1);
+    private synchronized void addToRecordCount(int delta) {
+        recordCount += delta;
+    }
 
-            if (hNext == oldSplitPointer) {
-                // to old
-                oldBlockRecords.add(record);
-            } else if (hNext == newBlockIndex) {
-                // to new
-                newBlockRecords.add(record);
-            } else {
-                System.err.println("Error: incorrect linear hashing!!!");
-                oldBlockRecords.add(record);
+    private void splitIfNeeded() {
+        if (calculateDensity() <= MAX_DENSITY) {
+            return;
+        }
+        resizeLock.lock();
+        try {
+            while (calculateDensity() > MAX_DENSITY) {
+                split();
+            }
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    private void mergeIfNeeded() {
+        if (calculateDensity() >= MIN_DENSITY) {
+            return;
+        }
+        resizeLock.lock();
+        try {
+            while (calculateDensity() < MIN_DENSITY && blockCount > INITIAL_BLOCK_COUNT) {
+                merge();
             }
+        } finally {
+            resizeLock.unlock();
         }
+    }
 
-        // filling old empty chain
-        int lastUsedOld = insertRecordsToChain(oldBlockRecords, oldBlock, allOverflowBlocks);
+    // one split or merge as own transaction, true while density is still outside band
+    boolean resizeStep() {
+        boolean resized = false;
+        Lock operation = writerLock();
+        operation.lock();
+        try {
+            resizeLock.lock();
+            try {
+                double density = calculateDensity();
+                // with split budget splits are done by foreground operations
+                if (splitBudget == 0 && (density > MAX_DENSITY || (resizeDirection > 0 && density > SPLIT_TARGET_DENSITY))) {
+                    resizeDirection = 1;
+                    split();
+                    resized = true;
+                } else if (blockCount > INITIAL_BLOCK_COUNT
+                        && (density < MIN_DENSITY || (resizeDirection < 0 && density < MERGE_TARGET_DENSITY))) {
+                    resizeDirection = -1;
+                    resized = merge();
+                }
+                if (!resized) {
+                    resizeDirection = 0;
+                }
+            } finally {
+                resizeLock.unlock();
+            }
 
-        ArrayList<LinkedBlock<T>> newOverflowBlocks = new ArrayList<>(); //unused blocks in old chain
-        int firstNewOverflowBlockIndex = -1;
+            if (resized) {
+                awaitCommit();
+            }
+        } finally {
+            operation.unlock();
+        }
 
-        if (lastUsedOld == -1) {
-            firstNewOverflowBlockIndex = oldBlock.getNextBlock();
-            oldBlock.setNextBlock(-1);
-            newOverflowBlocks = allOverflowBlocks;
-        } else {
-            ArrayList<LinkedBlock<T>> oldUsedOverflowBlocks = new ArrayList<>();
+        if (resized) {
+            checkpointIfNeeded();
+        }
+        return resized;
+    }
 
-            //divide blocks
-            for (int i = 0; i < allOverflowBlocks.size(); i++) {
-                if (i <= lastUsedOld) {
-                    oldUsedOverflowBlocks.add(allOverflowBlocks.get(i));
-                } else {
-                    newOverflowBlocks.add(allOverflowBlocks.get(i));
+    // bucket can be merged away before its shake runs
+    void shakeBucket(int index) {
+        Lock operation = writerLock();
+        operation.lock();
+        try {
+            bucketLock(index).writeLock().lock();
+            try {
+                if (index < blockCount) {
+                    shake(index);
                 }
+            } finally {
+                unlatchBucket(index, true);
             }
-            firstNewOverflowBlockIndex = oldUsedOverflowBlocks.getLast().getNextBlock();
-            oldUsedOverflowBlocks.getLast().setNextBlock(-1);
+            awaitCommit();
+        } finally {
+            operation.unlock();
+        }
+        checkpointIfNeeded();
+    }
 
-            overflowFile.editBlockChain(oldBlock.getNextBlock(), oldUsedOverflowBlocks);
+    // waits until queued splits, merges and shakes are done
+    public void awaitMaintenance() throws InterruptedException {
+        if (maintenance != null) {
+            maintenance.awaitIdle();
         }
-        saveBlockToFile(oldSplitPointer, oldBlock);
+    }
 
-        // filling new empty chain
-        int lastUsedNew = insertRecordsToChain(newBlockRecords, newBlock, newOverflowBlocks);
+    private static FileOptions createDefaultOptions() {
+        FileOptions options = new FileOptions();
+        options.setBufferPool(new BufferPool());
+        return options;
+    }
+
+    private int getHashIndex(int code) {
+        int index = hash(code, hashPower);
+        if (index < 0 || index >= blockCount) {
+            System.out.println("Index out of range");
+        }
+        if (index < splitPointer) {
+            index = hash(code, hashPower + 1);
+        }
+        return index;
+    }
 
-        ArrayList<LinkedBlock<T>> emptyOverflowBlocks = new ArrayList<>(); //unused blocks in new chain
-        int firstEmptyOverflowBlockIndex = -1;
+    static int hash(int code, int power) {
+        return Math.abs(code % (INITIAL_BLOCK_COUNT << power));
+    }
 
-        if (lastUsedNew == -1) {
-            firstEmptyOverflowBlockIndex = firstNewOverflowBlockIndex;
-            newBlock.setNextBlock(-1);
-            emptyOverflowBlocks = newOverflowBlocks;
-        } else {
-            newBlock.setNextBlock(firstNewOverflowBlockIndex);
-            ArrayList<LinkedBlock<T>> newUsedOverflowBlocks = new ArrayList<>();
+    // caller holds resize lock, only split bucket and new bucket are latched
+    private void split() {
+        finishMigration();
+        int sourceIndex = splitPointer;
+        int newIndex = blockCount;
+        bucketLock(sourceIndex).writeLock().lock();
+        bucketLock(newIndex).writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            splitBucket();
+            metrics.recordSplit(System.nanoTime() - start);
+        } finally {
+            unlatchBucket(newIndex, true);
+            unlatchBucket(sourceIndex, true);
+        }
+    }
 
-            //divide blocks
-            for (int i = 0; i < newOverflowBlocks.size(); i++) {
-                if (i <= lastUsedNew) {
-                    newUsedOverflowBlocks.add(newOverflowBlocks.get(i));
-                } else {
-                    emptyOverflowBlocks.add(newOverflowBlocks.get(i));
+    // at most budget blocks of split bucket are moved, operation skips it while another thread resizes
+    private boolean advanceSplit(int budget) {
+        if (migrationTarget == -1 && calculateDensity() <= MAX_DENSITY) {
+            return false;
+        }
+        if (!resizeLock.tryLock()) {
+            return false;
+        }
+        int steps = 0;
+        try {
+            while (steps < budget) {
+                if (migrationTarget == -1) {
+                    if (calculateDensity() <= MAX_DENSITY) {
+                        break;
+                    }
+                    beginMigration();
                 }
+                migrateStep();
+                steps++;
             }
-            firstEmptyOverflowBlockIndex = newUsedOverflowBlocks.getLast().getNextBlock();
-            newUsedOverflowBlocks.getLast().setNextBlock(-1);
-
-            overflowFile.editBlockChain(newBlock.getNextBlock(), newUsedOverflowBlocks);
+        } finally {
+            resizeLock.unlock();
         }
-        saveBlockToFile(newBlockIndex, newBlock);
+        return steps > 0;
+    }
 
-        //clear empty blocks
-        ArrayList<Integer> emptyBlocksIndexes = new ArrayList<>();
-        emptyBlocksIndexes.add(firstEmptyOverflowBlockIndex);
-        for (int i = 0; i < emptyOverflowBlocks.size() - 1; i++) {
-            emptyBlocksIndexes.add(emptyOverflowBlocks.get(i).getNextBlock());
+    // caller holds resize lock
+    private void finishMigration() {
+        while (migrationTarget != -1) {
+            migrateStep();
         }
-        overflowFile.addToEmptyBlocks(emptyBlocksIndexes);
+    }
 
-        overflowFile.truncateEmptyBlocksAtEnd();
+    // caller holds resize lock, hash function moves at once, records are moved later by migrateStep
+    private void beginMigration() {
+        int sourceIndex = splitPointer;
+        int newIndex = blockCount;
+        bucketLock(sourceIndex).writeLock().lock();
+        bucketLock(newIndex).writeLock().lock();
+        try {
+            saveBlockToFile(newIndex, createNewBlock());
+            blockCount++;
+
+            structureLock.writeLock().lock();
+            try {
+                splitPointer++;
+                if (splitPointer >= getHashEdge()) {
+                    hashPower++;
+                    splitPointer = 0;
+                }
+                migrationSource = sourceIndex;
+                migrationTarget = newIndex;
+            } finally {
+                structureLock.writeLock().unlock();
+            }
+            migrationCursor = MIGRATE_MAIN;
+            migrationTail = -1;
+            migrationNanos = 0;
+        } finally {
+            unlatchBucket(newIndex, true);
+            unlatchBucket(sourceIndex, true);
+        }
     }
 
-    private boolean merge() {
-        if (blockCount > INITIAL_BLOCK_COUNT) {
-            splitPointer--;
-            if (splitPointer < 0) {
-                hashPower--;
-                splitPointer = getHashEdge() - 1;
+    // one block of source chain, records of new bucket are appended to its chain, rest stays in place
+    // source chain is left for shake when split is done
+    private void migrateStep() {
+        int sourceIndex = migrationSource;
+        int targetIndex = migrationTarget;
+        bucketLock(sourceIndex).writeLock().lock();
+        bucketLock(targetIndex).writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            HashBlock<T> sourceBlock = loadBlock(sourceIndex);
+            HashBlock<T> targetBlock = loadBlock(targetIndex);
+
+            ArrayList<T> moved = new ArrayList<>();
+            int next;
+            if (migrationCursor == MIGRATE_MAIN) {
+                separateRecords(sourceBlock, targetIndex, moved);
+                next = sourceBlock.getNextBlock();
+            } else {
+                LinkedBlock<T> overflowBlock = overflowFile.loadBlock(migrationCursor);
+                if (overflowBlock == null) {
+                    throw new IllegalStateException("Broken overflow chain of bucket " + sourceIndex + ".");
+                }
+                separateRecords(overflowBlock, targetIndex, moved);
+                if (!moved.isEmpty()) {
+                    overflowFile.saveBlock(migrationCursor, overflowBlock);
+                }
+                next = overflowBlock.getNextBlock();
             }
 
-            //main blocks
-            HashBlock<T> lowerBlock = loadBlock(splitPointer);
-            HashBlock<T> higherBlock = loadBlock(blockCount - 1);
+            appendToTarget(targetBlock, moved);
+            sourceBlock.setRecordCount(sourceBlock.getRecordCount() - moved.size());
+            saveBlockToFile(targetIndex, targetBlock);
+            saveBlockToFile(sourceIndex, sourceBlock);
+
+            migrationCursor = next == -1 ? NO_MIGRATION : next;
+            migrationNanos += System.nanoTime() - start;
+            if (migrationCursor == NO_MIGRATION) {
+                structureLock.writeLock().lock();
+                try {
+                    migrationSource = -1;
+                    migrationTarget = -1;
+                } finally {
+                    structureLock.writeLock().unlock();
+                }
+                migrationTail = -1;
+                metrics.recordSplit(migrationNanos);
+
+                if (maintenance == null) {
+                    shake(sourceIndex);
+                } else if (canShake(sourceBlock)) {
+                    maintenance.requestShake(sourceIndex);
+                }
+            }
+        } finally {
+            unlatchBucket(targetIndex, true);
+            unlatchBucket(sourceIndex, true);
+        }
+    }
 
-            //overflow blocks
-            ArrayList<LinkedBlock<T>> lowerOverflowBlocks = overflowFile.getBlockChain(lowerBlock.getNextBlock());
-            ArrayList<LinkedBlock<T>> higherOverflowBlocks = overflowFile.getBlockChain(higherBlock.getNextBlock());
+    private void separateRecords(LinkedBlock<T> block, int targetIndex, ArrayList<T> moved) {
+        for (T record : block.removeRecords()) {
+            if (getHashIndex(record.hashCode()) == targetIndex) {
+                moved.add(record);
+            } else {
+                block.addRecord(record);
+            }
+        }
+    }
 
-            ArrayList<LinkedBlock<T>> allOverflowBlocks = new ArrayList<>();
-            int allOverflowHeadIndex = -1;
+    // main block first, then last block of chain and new blocks after it, last block is remembered between steps
+    private void appendToTarget(HashBlock<T> block, ArrayList<T> records) {
+        int r = 0;
+        while (r < records.size() && block.isPartiallyEmpty()) {
+            block.addRecord(records.get(r++));
+        }
 
-            if (!lowerOverflowBlocks.isEmpty()) {
-                // first overflow index
-                allOverflowHeadIndex = lowerBlock.getNextBlock();
-                allOverflowBlocks.addAll(lowerOverflowBlocks);
+        if (r < records.size()) {
+            int tailIndex = migrationTail != -1 ? migrationTail : block.getNextBlock();
+            LinkedBlock<T> tail = null;
+            while (tailIndex != -1) {
+                tail = overflowFile.loadBlock(tailIndex);
+                if (tail.getNextBlock() == -1) {
+                    break;
+                }
+                tailIndex = tail.getNextBlock();
+            }
 
-                //connect 2 chains
-                if (!higherOverflowBlocks.isEmpty()) {
-                    allOverflowBlocks.get(allOverflowBlocks.size() - 1).setNextBlock(higherBlock.getNextBlock());
+            while (r < records.size()) {
+                while (r < records.size() && tail != null && tail.isPartiallyEmpty()) {
+                    tail.addRecord(records.get(r++));
+                }
+                if (r < records.size()) {
+                    int newIndex = overflowFile.allocateBlock();
+                    if (tail == null) {
+                        block.setNextBlock(newIndex);
+                    } else {
+                        tail.setNextBlock(newIndex);
+                        overflowFile.saveBlock(tailIndex, tail);
+                    }
+                    block.setChainBlock(block.getOverflowBlockCount(), newIndex);
+                    block.incrementOverflowBlockCount();
+                    tail = overflowFile.createNewBlock();
+                    tailIndex = newIndex;
                 }
+            }
+            overflowFile.saveBlock(tailIndex, tail);
+            migrationTail = tailIndex;
+        }
+
+        block.setRecordCount(block.getRecordCount() + records.size());
+    }
+
+    // records are routed block by block, every block of old chain is read once and every target block written once
+    private void splitBucket() {
+        int oldSplitPointer = splitPointer;
+        int oldHashEdge = getHashEdge();     // N = INITIAL_BLOCK_COUNT * 2^hashPower
+        int oldHashPower = hashPower;        // i
+
+        int newBlockIndex = blockCount;
+        HashBlock<T> newBlock = createNewBlock();
+        blockCount++;
+
+        HashBlock<T> oldBlock = loadBlock(oldSplitPointer);
+        if (oldBlock == null) {
+            return;
+        }
+
+        structureLock.writeLock().lock();
+        try {
+            splitPointer++;
+            if (splitPointer >= oldHashEdge) {
+                hashPower++;
+                splitPointer = 0;
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+
+        int chainHeadIndex = oldBlock.getNextBlock();
+        ArrayDeque<Integer> freeIndexes = new ArrayDeque<>();
+        ChainWriter<T> oldChain = new ChainWriter<>(overflowFile, freeIndexes, oldBlock);
+        ChainWriter<T> newChain = new ChainWriter<>(overflowFile, freeIndexes, newBlock);
+        Consumer<T> router = record -> {
+            int hNext = hash(record.hashCode(), oldHashPower + 1);
+            if (hNext == newBlockIndex) {
+                newChain.add(record);
             } else {
-                if (!higherOverflowBlocks.isEmpty()) {
-                    allOverflowHeadIndex = higherBlock.getNextBlock();
-                    lowerBlock.setNextBlock(allOverflowHeadIndex);
+                if (hNext != oldSplitPointer) {
+                    System.err.println("Error: incorrect linear hashing!!!");
                 }
+                oldChain.add(record);
             }
+        };
+
+        for (T record : oldBlock.removeRecords()) {
+            router.accept(record);
+        }
+        streamChain(chainHeadIndex, freeIndexes, router);
+        oldChain.finish();
+        newChain.finish();
 
-            allOverflowBlocks.addAll(higherOverflowBlocks);
+        saveBlockToFile(oldSplitPointer, oldBlock);
+        saveBlockToFile(newBlockIndex, newBlock);
+        freeOverflowBlocks(freeIndexes);
 
-            //all records
-            ArrayList<T> allRecords = new ArrayList<>();
-            allRecords.addAll(lowerBlock.removeRecords());
-            allRecords.addAll(higherBlock.removeRecords());
-            for (LinkedBlock<T> ob : allOverflowBlocks) {
-                allRecords.addAll(ob.removeRecords());
+        overflowFile.truncateEmptyBlocksAtEnd();
+    }
+
+    // caller holds resize lock, only merged buckets are latched
+    private boolean merge() {
+        finishMigration();
+        if (blockCount <= INITIAL_BLOCK_COUNT) {
+            return false;
+        }
+        int lowerIndex = splitPointer > 0 ? splitPointer - 1 : getHashEdge() / 2 - 1;
+        int higherIndex = blockCount - 1;
+        bucketLock(lowerIndex).writeLock().lock();
+        bucketLock(higherIndex).writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            boolean merged = mergeBuckets();
+            if (merged) {
+                metrics.recordMerge(System.nanoTime() - start);
             }
+            return merged;
+        } finally {
+            unlatchBucket(higherIndex, true);
+            unlatchBucket(lowerIndex, true);
+        }
+    }
 
-            int lastUsed = insertRecordsToChain(allRecords, lowerBlock, allOverflowBlocks);
+    private boolean mergeBuckets() {
+        if (blockCount > INITIAL_BLOCK_COUNT) {
+            structureLock.writeLock().lock();
+            try {
+                splitPointer--;
+                if (splitPointer < 0) {
+                    hashPower--;
+                    splitPointer = getHashEdge() - 1;
+                }
+            } finally {
+                structureLock.writeLock().unlock();
+            }
 
-            reattachAndFreeOverflowBlocks(lowerBlock, allOverflowBlocks, lastUsed, allOverflowHeadIndex);
+            //main blocks
+            HashBlock<T> lowerBlock = loadBlock(splitPointer);
+            HashBlock<T> higherBlock = loadBlock(blockCount - 1);
+            int lowerChainHead = lowerBlock.getNextBlock();
+            int higherChainHead = higherBlock.getNextBlock();
+
+            // higher main block goes last, its records fill blocks freed by both chains
+            ArrayDeque<Integer> freeIndexes = new ArrayDeque<>();
+            ChainWriter<T> chain = new ChainWriter<>(overflowFile, freeIndexes, lowerBlock);
+            for (T record : lowerBlock.removeRecords()) {
+                chain.add(record);
+            }
+            streamChain(lowerChainHead, freeIndexes, chain::add);
+            streamChain(higherChainHead, freeIndexes, chain::add);
+            for (T record : higherBlock.removeRecords()) {
+                chain.add(record);
+            }
+            chain.finish();
 
             saveBlockToFile(splitPointer, lowerBlock);
+            freeOverflowBlocks(freeIndexes);
             truncateLastBlock();
+            chainStatistics.removeLast();
 
             return true;
         }
         return false;
     }
 
-    private void shake(int index) {
-        HashBlock<T> block = loadBlock(index);
-
+    // chain holds more overflow blocks than its records need
+    private boolean canShake(HashBlock<T> block) {
         boolean canShake = false;
         int recordsToOverflow = block.getRecordCount() - block.getCapacity();
         if (recordsToOverflow > 0) {
@@ -332,80 +1125,150 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
                 canShake = true;
             }
         }
+        return canShake;
+    }
 
-        if (canShake) {
-            //shake
-            ArrayList<LinkedBlock<T>> allOverflowBlocks = overflowFile.getBlockChain(block.getNextBlock());
-            ArrayList<T> allRecords = new ArrayList<>();
-            allRecords.addAll(block.removeRecords());
-            for (LinkedBlock<T> ob : allOverflowBlocks) {
-                allRecords.addAll(ob.removeRecords());
-            }
+    // buckets of split in progress are shaken when it is done
+    private void shake(int index) {
+        if (index == migrationSource || index == migrationTarget) {
+            return;
+        }
+        HashBlock<T> block = loadBlock(index);
 
+        if (canShake(block)) {
+            //shake
+            long start = System.nanoTime();
             int chainHeadIndex = block.getNextBlock();
-            int lastUsed = insertRecordsToChain(allRecords, block, allOverflowBlocks);
-
-            reattachAndFreeOverflowBlocks(block, allOverflowBlocks, lastUsed, chainHeadIndex);
+            ArrayDeque<Integer> freeIndexes = new ArrayDeque<>();
+            ChainWriter<T> chain = new ChainWriter<>(overflowFile, freeIndexes, block);
+            for (T record : block.removeRecords()) {
+                chain.add(record);
+            }
+            streamChain(chainHeadIndex, freeIndexes, chain::add);
+            chain.finish();
 
             saveBlockToFile(index, block);
+            freeOverflowBlocks(freeIndexes);
             overflowFile.truncateEmptyBlocksAtEnd();
+            metrics.recordShake(System.nanoTime() - start);
         }
     }
 
-    private void reattachAndFreeOverflowBlocks(HashBlock<T> block, ArrayList<LinkedBlock<T>> overflowBlocks, int lastUsed, int originalChainHeadIdx) {
-        ArrayList<LinkedBlock<T>> emptyOverflowBlocks = new ArrayList<>();
-        int firstEmptyOverflowBlockIndex = -1;
+    // scattered chains are moved into runs of adjacent overflow blocks, at most maxBlocks blocks per call
+    // continues where previous call stopped, one bucket is latched at a time, returns number of moved blocks
+    public int defragment(int maxBlocks) {
+        int moved = 0;
+        int checked = 0;
+        while (moved < maxBlocks && checked < blockCount) {
+            int relocated;
+            Lock operation = writerLock();
+            operation.lock();
+            try {
+                resizeLock.lock();
+                try {
+                    if (defragmentCursor >= blockCount) {
+                        defragmentCursor = 0;
+                    }
+                    int index = defragmentCursor++;
+                    bucketLock(index).writeLock().lock();
+                    try {
+                        relocated = relocateChain(index);
+                    } finally {
+                        unlatchBucket(index, true);
+                    }
+                } finally {
+                    resizeLock.unlock();
+                }
 
-        if (lastUsed == -1) {
-            // no overflow blocks
-            block.setNextBlock(-1);
+                if (relocated > 0) {
+                    awaitCommit();
+                }
+            } finally {
+                operation.unlock();
+            }
 
-            if (!overflowBlocks.isEmpty() && originalChainHeadIdx != -1) {
-                firstEmptyOverflowBlockIndex = originalChainHeadIdx;
-                emptyOverflowBlocks.addAll(overflowBlocks);
+            if (relocated > 0) {
+                checkpointIfNeeded();
             }
-        } else {
-            // divide blocks
-            ArrayList<LinkedBlock<T>> usedOverflowBlocks = new ArrayList<>();
+            moved += relocated;
+            checked++;
+        }
+        return moved;
+    }
 
-            for (int i = 0; i < overflowBlocks.size(); i++) {
-                if (i <= lastUsed) {
-                    usedOverflowBlocks.add(overflowBlocks.get(i));
-                } else {
-                    emptyOverflowBlocks.add(overflowBlocks.get(i));
-                }
+    // chain is rewritten into lowest run of free blocks when it is scattered or run lies lower, returns moved blocks
+    private int relocateChain(int index) {
+        if (index == migrationSource || index == migrationTarget) {
+            return 0;
+        }
+        HashBlock<T> block = loadBlock(index);
+        if (block == null || !block.hasNextBlock()) {
+            return 0;
+        }
+
+        ArrayList<LinkedBlock<T>> chain = new ArrayList<>();
+        ArrayList<Integer> indexes = new ArrayList<>();
+        int currentIndex = block.getNextBlock();
+        while (currentIndex != -1) {
+            LinkedBlock<T> overflowBlock = overflowFile.loadBlock(currentIndex);
+            if (overflowBlock == null || chain.size() >= overflowFile.getBlockCount()) {
+                return 0; // broken chain is left as it is
             }
+            chain.add(overflowBlock);
+            indexes.add(currentIndex);
+            currentIndex = overflowBlock.getNextBlock();
+        }
 
-            if (!usedOverflowBlocks.isEmpty()) {
-                if (!emptyOverflowBlocks.isEmpty()) {
-                    firstEmptyOverflowBlockIndex = usedOverflowBlocks.get(usedOverflowBlocks.size() - 1).getNextBlock();
-                }
+        int[] targets = overflowFile.allocateRun(indexes);
+        if (targets == null) {
+            return 0;
+        }
 
-                usedOverflowBlocks.get(usedOverflowBlocks.size() - 1).setNextBlock(-1);
+        for (int i = 0; i < chain.size(); i++) {
+            chain.get(i).setNextBlock(i + 1 < chain.size() ? targets[i + 1] : -1);
+            overflowFile.saveBlock(targets[i], chain.get(i));
+            block.setChainBlock(i, targets[i]);
+        }
+        block.setNextBlock(targets[0]);
+        block.setOverflowBlockCount(chain.size());
+        saveBlockToFile(index, block);
 
-                if (originalChainHeadIdx != -1) {
-                    overflowFile.editBlockChain(originalChainHeadIdx, usedOverflowBlocks);
-                } else {
-                    // for safety
-                    block.setNextBlock(-1);
-                }
-            }
+        ArrayList<Integer> freed = new ArrayList<>(indexes);
+        for (int target : targets) {
+            freed.remove(Integer.valueOf(target));
         }
+        overflowFile.addToEmptyBlocks(freed);
+        overflowFile.truncateEmptyBlocksAtEnd();
+        metrics.recordRelocation(chain.size());
+        return chain.size();
+    }
+
+    // records of overflow chain are passed on block by block, index of read block can be reused by target at once
+    private void streamChain(int headIndex, ArrayDeque<Integer> freeIndexes, Consumer<T> target) {
+        int currentIndex = headIndex;
+        while (currentIndex != -1) {
+            LinkedBlock<T> block = overflowFile.loadBlock(currentIndex);
+            if (block == null) {
+                break;
+            }
 
-        // clear empty blocks
-        if (firstEmptyOverflowBlockIndex != -1 && !emptyOverflowBlocks.isEmpty()) {
-            ArrayList<Integer> emptyBlocksIndexes = new ArrayList<>();
-            emptyBlocksIndexes.add(firstEmptyOverflowBlockIndex);
-            for (int i = 0; i < emptyOverflowBlocks.size() - 1; i++) {
-                emptyBlocksIndexes.add(emptyOverflowBlocks.get(i).getNextBlock());
+            int nextIndex = block.getNextBlock();
+            freeIndexes.add(currentIndex);
+            for (T record : block.removeRecords()) {
+                target.accept(record);
             }
-            overflowFile.addToEmptyBlocks(emptyBlocksIndexes);
+            currentIndex = nextIndex;
+        }
+    }
+
+    // blocks of source chains not reused by targets
+    private void freeOverflowBlocks(ArrayDeque<Integer> freeIndexes) {
+        if (!freeIndexes.isEmpty()) {
+            overflowFile.addToEmptyBlocks(new ArrayList<>(freeIndexes));
         }
     }
 
-    private int insertRecordsToChain(ArrayList<T> records, HashBlock<T> block, ArrayList<LinkedBlock<T>> overflowBlocks) {
-        block.setRecordCount(0);
-        block.setOverflowBlockCount(0);
+    private void insertAllIntoChain(HashBlock<T> block, ArrayList<T> records) {
         int r = 0;
 
         // main block
@@ -413,32 +1276,51 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
             block.addRecord(records.get(r++));
         }
 
-        int lastUsed = -1;
-        int i = 0;
-
-        // overflow blocks
-        while (r < records.size() && i < overflowBlocks.size()) {
-            LinkedBlock<T> ob = overflowBlocks.get(i);
-
-            while (r < records.size() && ob.isPartiallyEmpty()) {
-                ob.addRecord(records.get(r++));
+        if (r < records.size()) {
+            ArrayList<LinkedBlock<T>> chain = overflowFile.getBlockChain(block.getNextBlock());
+            int oldChainLength = chain.size();
+            int firstChanged = -1;
+
+            // free space in chain
+            for (int i = 0; i < chain.size() && r < records.size(); i++) {
+                LinkedBlock<T> ob = chain.get(i);
+                if (ob.isPartiallyEmpty() && firstChanged == -1) {
+                    firstChanged = i;
+                }
+                while (r < records.size() && ob.isPartiallyEmpty()) {
+                    ob.addRecord(records.get(r++));
+                }
             }
 
-            if (!ob.isEmpty()) {
-                lastUsed = i;
+            // new blocks at end of chain
+            while (r < records.size()) {
+                LinkedBlock<T> ob = overflowFile.createNewBlock();
+                while (r < records.size() && ob.isPartiallyEmpty()) {
+                    ob.addRecord(records.get(r++));
+                }
+
+                int newIndex = overflowFile.allocateBlock();
+                block.setChainBlock(chain.size(), newIndex);
+                if (chain.isEmpty()) {
+                    block.setNextBlock(newIndex);
+                } else {
+                    chain.getLast().setNextBlock(newIndex);
+                }
+                if (firstChanged == -1) {
+                    firstChanged = Math.max(chain.size() - 1, 0);
+                }
+                chain.add(ob);
             }
 
-            i++;
-        }
+            // changed part of chain
+            int firstChangedIndex = firstChanged == 0 ? block.getNextBlock() : chain.get(firstChanged - 1).getNextBlock();
+            overflowFile.editBlockChain(firstChangedIndex, new ArrayList<>(chain.subList(firstChanged, chain.size())));
 
-        if (r < records.size()) {
-            throw new IllegalStateException("Not enough overflow blocks capacity during split");
+            block.setOverflowBlockCount(block.getOverflowBlockCount() + chain.size() - oldChainLength);
         }
 
-        block.setRecordCount(records.size());
-        block.setOverflowBlockCount(lastUsed + 1); // 0 if last used = -1
-
-        return lastUsed; // -1 = no overflow blocks
+        block.setRecordCount(block.getRecordCount() + records.size());
+        addToRecordCount(records.size());
     }
 
     private void insertIntoMainBlockOrOverflow(HashBlock<T> block, T record) {
@@ -448,21 +1330,24 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
 
         if (block.isPartiallyEmpty()) {
             if (block.addRecord(record)) {
-                this.recordCount++;
+                addToRecordCount(1);
                 block.incrementRecordCount();
             }
         } else {
             if (block.hasNextBlock()) {
-                if (overflowFile.insertToChain(block.getNextBlock(), record)) {
+                int newBlockIndex = overflowFile.insertToChain(block, record);
+                if (newBlockIndex != -1) {
+                    block.setChainBlock(block.getOverflowBlockCount(), newBlockIndex);
                     block.incrementOverflowBlockCount();
                 }
             } else {
                 int overflowBlockIndex = overflowFile.insertToStart(record);
 
                 block.setNextBlock(overflowBlockIndex);
+                block.setChainBlock(0, overflowBlockIndex);
                 block.incrementOverflowBlockCount();
             }
-            this.recordCount++;
+            addToRecordCount(1);
             block.incrementRecordCount();
         }
     }
@@ -475,7 +1360,28 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
 
     @Override
     protected HashBlock<T> createNewBlock() {
-        return new HashBlock<>(recordsPerBlock, recordClass);
+        return new HashBlock<>(recordsPerBlock, recordClass, chainDirectorySize);
+    }
+
+    // every main block write keeps chain statistics current
+    @Override
+    protected void saveBlockToFile(int blockIndex, Block<T> block) {
+        super.saveBlockToFile(blockIndex, block);
+        HashBlock<T> hashBlock = (HashBlock<T>) block;
+        chainStatistics.update(blockIndex, hashBlock.getOverflowBlockCount(), hashBlock.getRecordCount());
+    }
+
+    // full scan, only when statistics were not saved by close
+    private void rebuildChainStatistics() {
+        chainStatistics.clear();
+        for (int i = 0; i < blockCount; i++) {
+            HashBlock<T> block = loadBlock(i);
+            if (block != null) {
+                chainStatistics.update(i, block.getOverflowBlockCount(), block.getRecordCount());
+            } else {
+                chainStatistics.update(i, 0, 0);
+            }
+        }
     }
 
     @Override
@@ -483,9 +1389,14 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
         return (HashBlock<T>) super.loadBlock(blockIndex);
     }
 
+    @Override
+    protected HashBlock<T> loadReadOnlyBlock(int blockIndex) {
+        return (HashBlock<T>) super.loadReadOnlyBlock(blockIndex);
+    }
+
     //public for tests
     public int getHashEdge() {
-        return (int) Math.pow(2, hashPower) * INITIAL_BLOCK_COUNT;
+        return INITIAL_BLOCK_COUNT << hashPower;
     }
 
     //public for tests
@@ -493,6 +1404,14 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
         return splitPointer;
     }
 
+    private void countRecords() {
+        this.recordCount = 0;
+        for (int i = 0; i < blockCount; i++) {
+            recordCount += chainStatistics.getRecordCount(i);
+        }
+    }
+
+    // flag at end is 1 only after close, older metadata has no flag
     private void loadHashFile() throws IOException {
         File metadata = new File(hashFileName);
         if (!metadata.exists()) {
@@ -503,110 +1422,177 @@ public class HashFile<T extends IRecord<T>> extends HeapFile<T> {
             this.hashPower = dis.readInt();
             this.splitPointer = dis.readInt();
             this.recordCount = dis.readInt();
+            if (dis.available() > 0) {
+                chainStatistics.readFrom(dis);
+            }
+            if (dis.available() > 0) {
+                this.migrationCursor = dis.readInt();
+            }
+            if (dis.available() > 0) {
+                this.statisticsExact = dis.readInt() == 1;
+            }
+        }
+    }
+
+    // statistics are changed by operations from now on, crash before close leaves them to be rebuilt
+    private void markHashFileNotClean() throws IOException {
+        try (RandomAccessFile metadata = new RandomAccessFile(hashFileName, "rw")) {
+            metadata.seek(metadata.length() - Integer.BYTES);
+            metadata.writeInt(0);
+            metadata.getFD().sync();
         }
     }
 
-    private void saveHashFile() throws IOException {
-        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(hashFileName))) {
+    private void saveHashFile(boolean clean) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(hashFileName);
+             DataOutputStream dos = new DataOutputStream(fos)) {
             dos.writeInt(this.hashPower);
             dos.writeInt(this.splitPointer);
             dos.writeInt(this.recordCount);
+            chainStatistics.writeTo(dos);
+            dos.writeInt(migrationCursor);
+            dos.writeInt(clean ? 1 : 0);
+            dos.flush();
+            fos.getFD().sync();
         }
     }
 
     @Override
     public void printAllBlocks() {
-        System.out.println("=== HASH FILE ===");
-        System.out.println("File: " + fileName);
-        System.out.println("Block size: " + blockSize);
-        System.out.println("Records per block: " + recordsPerBlock);
-        System.out.println("Hash power: " + hashPower);
-        System.out.println("Split pointer: " + splitPointer);
-        System.out.println("Total records: " + recordCount);
-        System.out.println("Total blocks: " + blockCount);
-
-        System.out.println();
-
-        // main blocks
-        for (int i = 0; i < blockCount; i++) {
-            HashBlock<T> block = loadBlock(i);
-            if (block != null) {
-                System.out.println("Hash Block #" + i + ":");
-                System.out.println(block.toString());
-                System.out.println();
+        operationLock.writeLock().lock();
+        try {
+            System.out.println("=== HASH FILE ===");
+            System.out.println("File: " + fileName);
+            System.out.println("Block size: " + blockSize);
+            System.out.println("Records per block: " + recordsPerBlock);
+            System.out.println("Hash power: " + hashPower);
+            System.out.println("Split pointer: " + splitPointer);
+            System.out.println("Total records: " + recordCount);
+            System.out.println("Total blocks: " + blockCount);
+
+            System.out.println();
+
+            // main blocks
+            for (int i = 0; i < blockCount; i++) {
+                HashBlock<T> block = loadBlock(i);
+                if (block != null) {
+                    System.out.println("Hash Block #" + i + ":");
+                    System.out.println(block.toString());
+                    System.out.println();
+                }
             }
-        }
 
-        System.out.println("=== END OF HASH FILE ===");
+            System.out.println("=== END OF HASH FILE ===");
 
-        // overflow file
-        System.out.println();
-        overflowFile.printAllBlocks();
+            // overflow file
+            System.out.println();
+            overflowFile.printAllBlocks();
+        } finally {
+            operationLock.writeLock().unlock();
+        }
     }
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("=== HASH FILE ===\n");
-        sb.append("File: ").append(fileName).append("\n");
-        sb.append("Block size: ").append(blockSize).append("\n");
-        sb.append("Records per block: ").append(recordsPerBlock).append("\n");
-        sb.append("Hash power: ").append(hashPower).append("\n");
-        sb.append("Split pointer: ").append(splitPointer).append("\n");
-        sb.append("Total records: ").append(recordCount).append("\n");
-        sb.append("Total blocks: ").append(blockCount).append("\n");
-
-        // main blocks
-        for (int i = 0; i < blockCount; i++) {
-            HashBlock<T> block = loadBlock(i);
-            if (block != null) {
-                sb.append("Hash Block #").append(i).append(":\n");
-                sb.append(block.toString()).append("\n");
+        operationLock.writeLock().lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("=== HASH FILE ===\n");
+            sb.append("File: ").append(fileName).append("\n");
+            sb.append("Block size: ").append(blockSize).append("\n");
+            sb.append("Records per block: ").append(recordsPerBlock).append("\n");
+            sb.append("Hash power: ").append(hashPower).append("\n");
+            sb.append("Split pointer: ").append(splitPointer).append("\n");
+            sb.append("Total records: ").append(recordCount).append("\n");
+            sb.append("Total blocks: ").append(blockCount).append("\n");
+
+            // main blocks
+            for (int i = 0; i < blockCount; i++) {
+                HashBlock<T> block = loadBlock(i);
+                if (block != null) {
+                    sb.append("Hash Block #").append(i).append(":\n");
+                    sb.append(block.toString()).append("\n");
+                }
             }
-        }
 
-        sb.append("=== END OF HASH FILE ===\n\n");
+            sb.append("=== END OF HASH FILE ===\n\n");
 
-        // overflow file
-        sb.append(overflowFile.toString());
+            // overflow file
+            sb.append(overflowFile.toString());
 
-        return sb.toString();
+            return sb.toString();
+        } finally {
+            operationLock.writeLock().unlock();
+        }
     }
 
     public void printStatistics() {
-        System.out.println("=== HASH FILE STATISTICS ===");
-        System.out.println("Total records: " + recordCount);
-        System.out.println("Main blocks: " + blockCount);
-        System.out.println("Overflow blocks: " + overflowFile.getBlockCount());
-        System.out.println("Hash power: " + hashPower);
-        System.out.println("Split pointer: " + splitPointer);
-        System.out.println("Load factor: " + String.format("%.2f", calculateDensity()));
-
-        int chainsWithOverflow = 0;
-        int maxChainLength = 0;
-
-        for (int i = 0; i < blockCount; i++) {
-            HashBlock<T> block = loadBlock(i);
-            if (block != null && block.hasNextBlock()) {
-                chainsWithOverflow++;
-                int chainLength = block.getOverflowBlockCount();
-                if (chainLength > maxChainLength) {
-                    maxChainLength = chainLength;
-                }
+        operationLock.writeLock().lock();
+        try {
+            System.out.println("=== HASH FILE STATISTICS ===");
+            System.out.println("Total records: " + recordCount);
+            System.out.println("Main blocks: " + blockCount);
+            System.out.println("Overflow blocks: " + overflowFile.getBlockCount());
+            System.out.println("Hash power: " + hashPower);
+            System.out.println("Split pointer: " + splitPointer);
+            System.out.println("Load factor: " + String.format("%.2f", calculateDensity()));
+
+            System.out.println("Chains with overflow: " + chainStatistics.getOverflowBucketCount());
+            System.out.println("Max chain length: " + chainStatistics.getMaxChainLength());
+
+            int[] histogram = chainStatistics.getChainLengthHistogram();
+            for (int length = 0; length < histogram.length; length++) {
+                System.out.println("  Chain length " + length + ": " + histogram[length] + " buckets");
             }
-        }
 
-        System.out.println("Chains with overflow: " + chainsWithOverflow);
-        System.out.println("Max chain length: " + maxChainLength);
-
-        System.out.println("=============================");
+            System.out.println("=============================");
+        } finally {
+            operationLock.writeLock().unlock();
+        }
     }
 
     public int getRecordCount() {
         return recordCount;
     }
 
+    public int getOverflowBucketCount() {
+        return chainStatistics.getOverflowBucketCount();
+    }
+
+    public int getMaxChainLength() {
+        return chainStatistics.getMaxChainLength();
+    }
+
+    // published as file.metrics:type=HashFile and type=OverflowFile with name of file, called once file is built,
+    // both are unregistered on close
+    public void registerMetrics() {
+        registerMetrics("HashFile", metricsName);
+        overflowFile.registerMetrics("OverflowFile", metricsName);
+    }
+
+    // off for storage without overlapping reads and for main block without space for chain directory
+    public boolean isChainPrefetch() {
+        return chainPrefetch;
+    }
+
+    // index = overflow blocks in chain, value = number of buckets
+    public int[] getChainLengthHistogram() {
+        return chainStatistics.getChainLengthHistogram();
+    }
+
+    public int getBucketRecordCount(int index) {
+        return chainStatistics.getRecordCount(index);
+    }
+
+    public long getSplitCount() {
+        return metrics.getSplits();
+    }
+
+    public long getMergeCount() {
+        return metrics.getMerges();
+    }
+
     @Override
     public void truncateEmptyBlocksAtEnd() {
         //empty for safety
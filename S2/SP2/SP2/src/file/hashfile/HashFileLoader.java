@@ -0,0 +1,335 @@
+package file.hashfile;
+
+import file.storage.FileOptions;
+import whoApp.data.IRecord;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+// builds new hash file from scratch, all block files are written sequentially
+public class HashFileLoader<T extends IRecord<T>> {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    private static final int IO_BUFFER_SIZE = 1024 * 1024;
+
+    private final String fileName;
+    private final int blockSize;
+    private final int overflowBlockSize;
+    private final Class<T> recordClass;
+    private final long memoryBudget;
+
+    private final T prototype;
+    private final int recordSize;
+    private final int entrySize; // hash code + record
+    private final int recordsPerBlock;
+    private final int recordsPerOverflowBlock;
+
+    public HashFileLoader(String fileName, int blockSize, int overflowBlockSize, Class<T> recordClass, long memoryBudget) {
+        this.fileName = fileName;
+        this.blockSize = blockSize;
+        this.overflowBlockSize = overflowBlockSize;
+        this.recordClass = recordClass;
+        this.memoryBudget = memoryBudget;
+
+        try {
+            this.prototype = recordClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Error creating record instance.", e);
+        }
+        this.recordSize = prototype.getSize();
+        this.entrySize = Integer.BYTES + recordSize;
+        // same layout as HashFile and OverflowFile
+        this.recordsPerBlock = (blockSize - 4 * Integer.BYTES) / recordSize;
+        this.recordsPerOverflowBlock = (overflowBlockSize - 2 * Integer.BYTES) / recordSize;
+    }
+
+    public HashFileLoader(String fileName, int blockSize, int overflowBlockSize, Class<T> recordClass) {
+        this(fileName, blockSize, overflowBlockSize, recordClass, DEFAULT_MEMORY_BUDGET);
+    }
+
+    // old files with same name are replaced
+    public HashFile<T> load(Iterator<T> records, FileOptions options) throws IOException {
+        if (blockSize < overflowBlockSize) {
+            throw new IOException("Block size must be greater than overflow block size.");
+        }
+        if (overflowBlockSize < recordSize) {
+            throw new IOException("Overflow block size must be greater than record size.");
+        }
+
+        Path mainPath = Paths.get("").toAbsolutePath().resolve(fileName + ".dat"); // same as HashFile
+        Path directory = mainPath.getParent();
+        ArrayList<Path> tempFiles = new ArrayList<>();
+
+        try {
+            // 1. spill input, count records
+            Path spill = Files.createTempFile(directory, "load", ".tmp");
+            tempFiles.add(spill);
+            long recordCount = spill(records, spill);
+            if (recordCount > Integer.MAX_VALUE) {
+                throw new IOException("Too many records for hash file.");
+            }
+
+            // 2. final layout, density stays under MAX_DENSITY without overflow blocks
+            int blockCount = (int) Math.max(HashFile.INITIAL_BLOCK_COUNT,
+                    Math.ceil(recordCount / (HashFile.MAX_DENSITY * recordsPerBlock)));
+            int hashPower = 0;
+            while ((long) HashFile.INITIAL_BLOCK_COUNT << (hashPower + 1) <= blockCount) {
+                hashPower++;
+            }
+            int splitPointer = blockCount - (HashFile.INITIAL_BLOCK_COUNT << hashPower);
+
+            // 3. partitions of consecutive buckets, each fits in memory
+            int partitionCount = (int) Math.max(1, Math.min(blockCount, (recordCount * entrySize + memoryBudget - 1) / memoryBudget));
+            int bucketsPerPartition = (blockCount + partitionCount - 1) / partitionCount;
+            ArrayList<Path> partitions = new ArrayList<>();
+            for (int i = 0; i < partitionCount; i++) {
+                Path partition = Files.createTempFile(directory, "load" + i + "_", ".tmp");
+                tempFiles.add(partition);
+                partitions.add(partition);
+            }
+            partition(spill, partitions, bucketsPerPartition, hashPower, splitPointer);
+            Files.delete(spill);
+
+            // 4. blocks of every partition in bucket order
+            Path overflowPath = Paths.get(fileName + "_overflow.dat");
+            ChainStatistics statistics = new ChainStatistics();
+            try (FileChannel main = open(Paths.get(mainPath + ".dat"));
+                 FileChannel overflow = open(overflowPath)) {
+                BlockWriter mainWriter = new BlockWriter(main, blockSize);
+                BlockWriter overflowWriter = new BlockWriter(overflow, overflowBlockSize);
+
+                for (int i = 0; i < partitionCount; i++) {
+                    int firstBucket = i * bucketsPerPartition;
+                    int lastBucket = Math.min(blockCount, firstBucket + bucketsPerPartition);
+                    writePartition(partitions.get(i), firstBucket, lastBucket, mainWriter, overflowWriter, statistics);
+                }
+
+                mainWriter.finish();
+                overflowWriter.finish();
+                main.force(true);
+                overflow.force(true);
+            }
+
+            // 5. metadata, free space maps are empty because chains are packed, block counts come from file length
+            Files.deleteIfExists(Paths.get(mainPath + "_heap.dat"));
+            Files.deleteIfExists(Paths.get(fileName + "_overflow_heap.dat"));
+            writeHashMetadata(Paths.get(fileName + "_hash.dat"), hashPower, splitPointer, (int) recordCount, statistics);
+            Files.deleteIfExists(Paths.get(fileName + "_wal.dat"));
+        } finally {
+            for (Path temp : tempFiles) {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        return new HashFile<>(fileName, blockSize, overflowBlockSize, recordClass, options);
+    }
+
+    private long spill(Iterator<T> records, Path spill) throws IOException {
+        long count = 0;
+        try (FileChannel channel = open(spill)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE - IO_BUFFER_SIZE % entrySize);
+            while (records.hasNext()) {
+                T record = records.next();
+                if (buffer.remaining() < entrySize) {
+                    writeFully(channel, buffer);
+                }
+                buffer.putInt(record.hashCode());
+                record.writeTo(buffer);
+                count++;
+            }
+            writeFully(channel, buffer);
+        }
+        return count;
+    }
+
+    private void partition(Path spill, ArrayList<Path> partitions, int bucketsPerPartition,
+                           int hashPower, int splitPointer) throws IOException {
+        int bufferSize = Math.max(entrySize, (IO_BUFFER_SIZE / partitions.size()) / entrySize * entrySize);
+
+        FileChannel[] outputs = new FileChannel[partitions.size()];
+        ByteBuffer[] buffers = new ByteBuffer[partitions.size()];
+        try (FileChannel input = FileChannel.open(spill, StandardOpenOption.READ)) {
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = open(partitions.get(i));
+                buffers[i] = ByteBuffer.allocate(bufferSize);
+            }
+
+            ByteBuffer in = ByteBuffer.allocateDirect(IO_BUFFER_SIZE - IO_BUFFER_SIZE % entrySize);
+            while (true) {
+                int read = input.read(in);
+                if (read == -1 && in.position() == 0) {
+                    break;
+                }
+                if (read == -1 && in.position() < entrySize) {
+                    throw new IOException("Spill file is corrupted.");
+                }
+                in.flip();
+                while (in.remaining() >= entrySize) {
+                    int code = in.getInt(in.position());
+                    int bucket = bucketOf(code, hashPower, splitPointer);
+                    ByteBuffer out = buffers[bucket / bucketsPerPartition];
+                    if (out.remaining() < entrySize) {
+                        writeFully(outputs[bucket / bucketsPerPartition], out);
+                    }
+                    out.putInt(bucket);
+                    in.position(in.position() + Integer.BYTES);
+                    int limit = in.limit();
+                    in.limit(in.position() + recordSize);
+                    out.put(in);
+                    in.limit(limit);
+                }
+                in.compact();
+            }
+
+            for (int i = 0; i < outputs.length; i++) {
+                writeFully(outputs[i], buffers[i]);
+            }
+        } finally {
+            for (FileChannel output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+    }
+
+    private void writePartition(Path partition, int firstBucket, int lastBucket,
+                                BlockWriter mainWriter, BlockWriter overflowWriter,
+                                ChainStatistics statistics) throws IOException {
+        byte[] entries = Files.readAllBytes(partition);
+        ByteBuffer data = ByteBuffer.wrap(entries);
+        int entryCount = entries.length / entrySize;
+        int bucketCount = lastBucket - firstBucket;
+
+        // counting sort by bucket
+        int[] starts = new int[bucketCount + 1];
+        for (int e = 0; e < entryCount; e++) {
+            starts[data.getInt(e * entrySize) - firstBucket + 1]++;
+        }
+        for (int b = 0; b < bucketCount; b++) {
+            starts[b + 1] += starts[b];
+        }
+        int[] order = new int[entryCount];
+        int[] next = starts.clone();
+        for (int e = 0; e < entryCount; e++) {
+            order[next[data.getInt(e * entrySize) - firstBucket]++] = e;
+        }
+
+        for (int b = 0; b < bucketCount; b++) {
+            int from = starts[b];
+            int to = starts[b + 1];
+            int count = to - from;
+
+            HashBlock<T> block = new HashBlock<>(recordsPerBlock, recordClass, HashBlock.directorySize(blockSize, recordsPerBlock, recordSize));
+            int r = from;
+            while (r < to && block.isPartiallyEmpty()) {
+                block.addRecord(decode(data, order[r++]));
+            }
+
+            // packed chain, blocks follow each other
+            int overflowRecords = to - r;
+            int chainLength = (overflowRecords + recordsPerOverflowBlock - 1) / recordsPerOverflowBlock;
+            block.setRecordCount(count);
+            block.setOverflowBlockCount(chainLength);
+            block.setNextBlock(chainLength > 0 ? overflowWriter.getBlockCount() : -1);
+            for (int c = 0; c < chainLength; c++) {
+                block.setChainBlock(c, overflowWriter.getBlockCount() + c);
+            }
+            mainWriter.write(block);
+            statistics.update(firstBucket + b, chainLength, count);
+
+            for (int c = 0; c < chainLength; c++) {
+                LinkedBlock<T> overflowBlock = new LinkedBlock<>(recordsPerOverflowBlock, recordClass);
+                while (r < to && overflowBlock.isPartiallyEmpty()) {
+                    overflowBlock.addRecord(decode(data, order[r++]));
+                }
+                overflowBlock.setNextBlock(c < chainLength - 1 ? overflowWriter.getBlockCount() + 1 : -1);
+                overflowWriter.write(overflowBlock);
+            }
+        }
+    }
+
+    private T decode(ByteBuffer data, int entry) {
+        return prototype.createClass().readFrom(data, entry * entrySize + Integer.BYTES);
+    }
+
+    private static int bucketOf(int code, int hashPower, int splitPointer) {
+        int index = HashFile.hash(code, hashPower);
+        if (index < splitPointer) {
+            index = HashFile.hash(code, hashPower + 1);
+        }
+        return index;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // same layout as HashFile.saveHashFile
+    private static void writeHashMetadata(Path path, int hashPower, int splitPointer, int recordCount,
+                                          ChainStatistics statistics) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(path.toFile());
+             DataOutputStream dos = new DataOutputStream(fos)) {
+            dos.writeInt(hashPower);
+            dos.writeInt(splitPointer);
+            dos.writeInt(recordCount);
+            statistics.writeTo(dos);
+            dos.writeInt(HashFile.NO_MIGRATION);
+            dos.writeInt(1); // statistics are exact, as after close
+            dos.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    // appends padded blocks through one large buffer
+    private static class BlockWriter {
+        private final FileChannel channel;
+        private final int blockSize;
+        private final ByteBuffer buffer;
+        private int blockCount;
+
+        BlockWriter(FileChannel channel, int blockSize) {
+            this.channel = channel;
+            this.blockSize = blockSize;
+            this.buffer = ByteBuffer.allocateDirect(Math.max(blockSize, IO_BUFFER_SIZE - IO_BUFFER_SIZE % blockSize));
+            this.blockCount = 0;
+        }
+
+        void write(LinkedBlock<?> block) throws IOException {
+            if (buffer.remaining() < blockSize) {
+                writeFully(channel, buffer);
+            }
+            int end = buffer.position() + blockSize;
+            block.writeTo(buffer);
+            while (buffer.position() < end) {
+                buffer.put((byte) 0);
+            }
+            blockCount++;
+        }
+
+        void finish() throws IOException {
+            writeFully(channel, buffer);
+        }
+
+        int getBlockCount() {
+            return blockCount;
+        }
+    }
+}
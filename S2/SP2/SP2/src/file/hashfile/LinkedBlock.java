@@ -2,7 +2,7 @@ package file.hashfile;
 
 import file.heapfile.Block;
 import whoApp.data.IRecord;
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 public class LinkedBlock<T extends IRecord<T>> extends Block<T> {
@@ -27,42 +27,26 @@ public class LinkedBlock<T extends IRecord<T>> extends Block<T> {
     }
 
     @Override
-    public byte[] getBytes() {
-        ByteArrayOutputStream hlpByteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream hlpOutStream = new DataOutputStream(hlpByteArrayOutputStream);
+    public void writeTo(ByteBuffer buffer) {
+        super.writeTo(buffer);
 
-        try {
-            byte[] superBytes = super.getBytes();
-            hlpOutStream.write(superBytes);
+        // nextBlock
+        buffer.putInt(nextBlock);
+    }
 
-            // nextBlock
-            hlpOutStream.writeInt(nextBlock);
+    @Override
+    public LinkedBlock<T> readFrom(ByteBuffer buffer, int offset) {
+        super.readFrom(buffer, offset);
 
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion to byte array.");
-        }
+        // nextBlock
+        this.nextBlock = buffer.getInt(offset + super.getSize());
 
-        return hlpByteArrayOutputStream.toByteArray();
+        return this;
     }
 
     @Override
     public LinkedBlock<T> fromBytes(byte[] bytes) {
-        ByteArrayInputStream hlpByteArrayInputStream = new ByteArrayInputStream(bytes);
-        DataInputStream hlpInStream = new DataInputStream(hlpByteArrayInputStream);
-
-        try {
-            byte[] superBytes = new byte[super.getSize()];
-            hlpInStream.readFully(superBytes);
-            super.fromBytes(superBytes);
-
-            // nextBlock
-            this.nextBlock = hlpInStream.readInt();
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion from byte array.", e);
-        }
-
-        return this;
+        return readFrom(ByteBuffer.wrap(bytes), 0);
     }
 
     @Override
@@ -0,0 +1,108 @@
+package file.hashfile;
+
+import file.heapfile.BlockBitmap;
+
+// structural work queued by foreground operations and done on one background thread
+// bucket waits for shake only once, resize is a flag because density is checked again when it runs
+// failed step stops the thread, its error is thrown by awaitIdle and close
+class MaintenanceScheduler {
+    private final HashFile<?> hashFile;
+    private final BlockBitmap pendingShakes = new BlockBitmap();
+    private final Thread thread;
+    private boolean resizePending;
+    private boolean busy;
+    private boolean closed;
+    private RuntimeException failure;
+
+    MaintenanceScheduler(HashFile<?> hashFile, String name) {
+        this.hashFile = hashFile;
+        this.thread = Thread.ofPlatform().daemon().name("hashfile-maintenance-" + name).unstarted(this::run);
+        thread.start();
+    }
+
+    synchronized void requestResize() {
+        if (!resizePending) {
+            resizePending = true;
+            notifyAll();
+        }
+    }
+
+    synchronized void requestShake(int index) {
+        if (pendingShakes.insert(index)) {
+            notifyAll();
+        }
+    }
+
+    synchronized void awaitIdle() throws InterruptedException {
+        while (!closed && failure == null && (busy || resizePending || !pendingShakes.isEmpty())) {
+            wait();
+        }
+        throwFailure();
+    }
+
+    // queued work is dropped, file is consistent without it
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            throwFailure();
+        }
+    }
+
+    private void throwFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Hash file maintenance failed.", failure);
+        }
+    }
+
+    // shakes and resize steps alternate, each step is one transaction of hash file
+    private void run() {
+        while (true) {
+            int shakeIndex;
+            boolean resize;
+            synchronized (this) {
+                busy = false;
+                notifyAll();
+                while (!closed && !resizePending && pendingShakes.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+
+                busy = true;
+                shakeIndex = pendingShakes.findMin();
+                pendingShakes.remove(shakeIndex);
+                resize = resizePending;
+                resizePending = false;
+            }
+
+            try {
+                if (shakeIndex != -1) {
+                    hashFile.shakeBucket(shakeIndex);
+                }
+                if (resize && hashFile.resizeStep()) {
+                    requestResize();
+                }
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failure = e;
+                    busy = false;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+}
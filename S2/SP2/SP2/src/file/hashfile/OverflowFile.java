@@ -1,19 +1,37 @@
 package file.hashfile;
 
 import whoApp.data.IRecord;
+import file.heapfile.Block;
 import file.heapfile.HeapFile;
+import file.storage.BlockStorage;
+import file.storage.FileOptions;
+import file.storage.WriteAheadLog;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
-public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
+// block allocation and free lists are synchronized, chains are guarded by bucket latches in HashFile
+public final class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
+    private final boolean chainPrefetch;
+    // with log, freed blocks are reused only after commit of operation that freed them is appended,
+    // otherwise new content of block could be logged before its free
+    private final ThreadLocal<ArrayList<Integer>> freedBeforeCommit = ThreadLocal.withInitial(ArrayList::new);
+    private volatile boolean deferFrees;
 
     public OverflowFile(String fileName, int blockSize, Class<T> recordClass) throws FileNotFoundException {
-        super(fileName, blockSize, recordClass);
+        this(fileName, blockSize, recordClass, new FileOptions());
+    }
+
+    public OverflowFile(String fileName, int blockSize, Class<T> recordClass, FileOptions options) throws FileNotFoundException {
+        super(fileName, blockSize, recordClass, options);
         this.recordsPerBlock = (blockSize - 2 * Integer.BYTES) / recordSize; // validCount, nextBlock
+        this.chainPrefetch = options.isChainPrefetch();
     }
 
-    public int insertToStart(T record) {
+    public synchronized int insertToStart(T record) {
 
         if (!emptyBlocks.isEmpty()) {
 
@@ -45,43 +63,95 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
 
     public boolean insertToChain(int startBlockIndex, T record) {
         if (startBlockIndex < blockCount) {
-            int currentBlockIndex = startBlockIndex;
-            int previousBlockIndex = -1;
+            return insertToChain(startBlockIndex, -1, record) != -1;
+        } else {
 
-            while (currentBlockIndex != -1) {
-                LinkedBlock<T> block = loadBlock(currentBlockIndex);
+            System.out.println("Error in insertToChain - index out of bounds");
+            return false;
+        }
+    }
 
-                if (block == null) {
-                    return false;
-                }
+    // index of block added to end of chain, -1 if record fit into existing block
+    int insertToChain(HashBlock<T> mainBlock, T record) {
+        if (mainBlock.getNextBlock() >= blockCount) {
+            System.out.println("Error in insertToChain - index out of bounds");
+            return -1;
+        }
 
-                if (block.addRecord(record)) {
-                    saveBlockToFile(currentBlockIndex, block);
-                    emptyBlocks.remove(Integer.valueOf(currentBlockIndex));
+        int[] indexes = prefetchIndexes(mainBlock);
+        if (indexes == null) {
+            return insertToChain(mainBlock.getNextBlock(), -1, record);
+        }
 
-                    return false;
+        ArrayList<LinkedBlock<T>> chain = confirmedBlocks(indexes, loadBlocksAsync(indexes).join());
+        for (int i = 0; i < chain.size(); i++) {
+            if (chain.get(i).addRecord(record)) {
+                saveBlockToFile(indexes[i], chain.get(i));
+                synchronized (this) {
+                    emptyBlocks.remove(indexes[i]);
                 }
+                return -1;
+            }
+        }
 
-                previousBlockIndex = currentBlockIndex;
-                currentBlockIndex = block.getNextBlock();
+        return insertToChain(nextAfter(indexes, chain), chain.isEmpty() ? -1 : indexes[chain.size() - 1], record);
+    }
+
+    private int insertToChain(int currentBlockIndex, int previousBlockIndex, T record) {
+        while (currentBlockIndex != -1) {
+            LinkedBlock<T> block = loadBlock(currentBlockIndex);
+
+            if (block == null) {
+                return -1;
             }
 
-            createNewBlockInChain(record, previousBlockIndex);
-            return true;
-        } else {
+            if (block.addRecord(record)) {
+                saveBlockToFile(currentBlockIndex, block);
+                synchronized (this) {
+                    emptyBlocks.remove(currentBlockIndex);
+                }
 
-            System.out.println("Error in insertToChain - index out of bounds");
-            return false;
+                return -1;
+            }
+
+            previousBlockIndex = currentBlockIndex;
+            currentBlockIndex = block.getNextBlock();
         }
+
+        return createNewBlockInChain(record, previousBlockIndex);
     }
 
-    public void addToEmptyBlocks(ArrayList<Integer> emptyBlocksIndexes) {
+    public synchronized void addToEmptyBlocks(ArrayList<Integer> emptyBlocksIndexes) {
         for (Integer index : emptyBlocksIndexes) {
             if (index >= 0 && index < blockCount) {
                 saveBlockToFile(index, createNewBlock());
-                emptyBlocks.insert(index);
+                if (deferFrees) {
+                    freedBeforeCommit.get().add(index);
+                } else {
+                    emptyBlocks.insert(index);
+                }
+            }
+        }
+    }
+
+    // called after commit of calling thread is appended
+    void releaseFreedBlocks() {
+        ArrayList<Integer> freed = freedBeforeCommit.get();
+        if (freed.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (Integer index : freed) {
+                if (index < blockCount) {
+                    emptyBlocks.insert(index);
+                }
             }
         }
+        freed.clear();
+    }
+
+    void saveBlock(int blockIndex, LinkedBlock<T> block) {
+        saveBlockToFile(blockIndex, block);
     }
 
     public void editBlockChain(int startBlockIndex, ArrayList<LinkedBlock<T>> linkedBlocks) {
@@ -99,27 +169,128 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
 
     @Override
     public T get(int startBlockIndex, T record) {
-        int currentBlockIndex = startBlockIndex;
+        return get(startBlockIndex, record, Block.encodeKey(record));
+    }
 
-        while (currentBlockIndex != -1) {
-            LinkedBlock<T> block = loadBlock(currentBlockIndex);
-            if (block == null) {
-                return null;
-            }
+    // key is encoded once for whole chain
+    T get(int startBlockIndex, T record, byte[] key) {
+        return get(startBlockIndex, record, key, 0);
+    }
+
+    T get(HashBlock<T> mainBlock, T record, byte[] key) {
+        int[] indexes = prefetchIndexes(mainBlock);
+        if (indexes == null) {
+            return get(mainBlock.getNextBlock(), record, key, 0);
+        }
 
-            T foundRecord = block.getRecord(record);
+        ArrayList<LinkedBlock<T>> chain = confirmedBlocks(indexes, loadBlocksAsync(indexes).join());
+        int hops = 0;
+        for (LinkedBlock<T> block : chain) {
+            hops++;
+            T foundRecord = block.getRecord(record, key);
             if (foundRecord != null) {
+                metrics.recordChainWalk(hops);
                 return foundRecord;
             }
+        }
 
-            currentBlockIndex = block.getNextBlock();
+        return get(nextAfter(indexes, chain), record, key, hops);
+    }
+
+    private T get(int startBlockIndex, T record, byte[] key, int hops) {
+        int currentBlockIndex = startBlockIndex;
+
+        try {
+            while (currentBlockIndex != -1) {
+                LinkedBlock<T> block = loadReadOnlyBlock(currentBlockIndex);
+                hops++;
+                if (block == null) {
+                    return null;
+                }
+
+                T foundRecord = block.getRecord(record, key);
+                if (foundRecord != null) {
+                    return foundRecord;
+                }
+
+                currentBlockIndex = block.getNextBlock();
+            }
+
+            return null;
+        } finally {
+            metrics.recordChainWalk(hops);
+        }
+    }
+
+    // chain walk as pipeline of block reads, maxBlocks stops walk over broken chain
+    CompletableFuture<T> getAsync(HashBlock<T> mainBlock, T record, byte[] key, int maxBlocks) {
+        int[] indexes = prefetchIndexes(mainBlock);
+        if (indexes == null) {
+            return getAsync(mainBlock.getNextBlock(), record, key, 0, maxBlocks);
+        }
+
+        return loadBlocksAsync(indexes).thenCompose(blocks -> {
+            ArrayList<LinkedBlock<T>> chain = confirmedBlocks(indexes, blocks);
+            int hops = 0;
+            for (LinkedBlock<T> block : chain) {
+                hops++;
+                T foundRecord = block.getRecord(record, key);
+                if (foundRecord != null) {
+                    metrics.recordChainWalk(hops);
+                    return CompletableFuture.completedFuture(foundRecord);
+                }
+            }
+            return getAsync(nextAfter(indexes, chain), record, key, hops, maxBlocks);
+        });
+    }
+
+    private CompletableFuture<T> getAsync(int blockIndex, T record, byte[] key, int hops, int maxBlocks) {
+        if (blockIndex == -1 || hops >= maxBlocks) {
+            metrics.recordChainWalk(hops);
+            return CompletableFuture.completedFuture(null);
         }
 
-        return null;
+        return loadBlockAsync(blockIndex).thenCompose(block -> {
+            if (block == null) {
+                metrics.recordChainWalk(hops + 1);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            T foundRecord = block.getRecord(record, key);
+            if (foundRecord != null) {
+                metrics.recordChainWalk(hops + 1);
+                return CompletableFuture.completedFuture(foundRecord);
+            }
+
+            return getAsync(((LinkedBlock<T>) block).getNextBlock(), record, key, hops + 1, maxBlocks);
+        });
     }
 
     @Override
     public boolean delete(int startBlockIndex, T record) {
+        return delete(startBlockIndex, record, Block.encodeKey(record));
+    }
+
+    boolean delete(HashBlock<T> mainBlock, T record, byte[] key) {
+        int[] indexes = prefetchIndexes(mainBlock);
+        if (indexes == null) {
+            return delete(mainBlock.getNextBlock(), record, key);
+        }
+
+        ArrayList<LinkedBlock<T>> chain = confirmedBlocks(indexes, loadBlocksAsync(indexes).join());
+        boolean removed = false;
+        for (int i = 0; i < chain.size(); i++) {
+            if (chain.get(i).deleteRecord(record, key)) {
+                removed = true;
+                saveBlockToFile(indexes[i], chain.get(i));
+            }
+        }
+
+        boolean removedFromRest = delete(nextAfter(indexes, chain), record, key);
+        return removed || removedFromRest;
+    }
+
+    boolean delete(int startBlockIndex, T record, byte[] key) {
         int currentBlockIndex = startBlockIndex;
         boolean removed = false;
 
@@ -129,7 +300,7 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
                 break;
             }
 
-            if (block.deleteRecord(record)) {
+            if (block.deleteRecord(record, key)) {
                 removed = true;
                 saveBlockToFile(currentBlockIndex, block);
             }
@@ -141,6 +312,29 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
     }
 
     public boolean edit(int startBlockIndex, T editedRecord) {
+        return edit(startBlockIndex, editedRecord, Block.encodeKey(editedRecord));
+    }
+
+    boolean edit(HashBlock<T> mainBlock, T editedRecord, byte[] key) {
+        int[] indexes = prefetchIndexes(mainBlock);
+        if (indexes == null) {
+            return edit(mainBlock.getNextBlock(), editedRecord, key);
+        }
+
+        ArrayList<LinkedBlock<T>> chain = confirmedBlocks(indexes, loadBlocksAsync(indexes).join());
+        boolean edited = false;
+        for (int i = 0; i < chain.size(); i++) {
+            if (chain.get(i).editRecord(editedRecord, key)) {
+                edited = true;
+                saveBlockToFile(indexes[i], chain.get(i));
+            }
+        }
+
+        boolean editedInRest = edit(nextAfter(indexes, chain), editedRecord, key);
+        return edited || editedInRest;
+    }
+
+    boolean edit(int startBlockIndex, T editedRecord, byte[] key) {
         int currentBlockIndex = startBlockIndex;
         boolean edited = false;
 
@@ -150,7 +344,7 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
                 break;
             }
 
-            if (block.editRecord(editedRecord)) {
+            if (block.editRecord(editedRecord, key)) {
                 edited = true;
                 saveBlockToFile(currentBlockIndex, block);
             }
@@ -161,6 +355,129 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
         return edited;
     }
 
+    // first empty block or new block at end, caller saves it
+    synchronized int allocateBlock() {
+        if (!emptyBlocks.isEmpty()) {
+            int index = emptyBlocks.findMin();
+            emptyBlocks.remove(index);
+            return index;
+        }
+        return blockCount++;
+    }
+
+    // start of chain known from main block, null when chain is only walked by links
+    private int[] prefetchIndexes(HashBlock<T> mainBlock) {
+        if (!chainPrefetch || !mainBlock.hasNextBlock()) {
+            return null;
+        }
+
+        int[] indexes = mainBlock.getKnownChain();
+        int valid = 0;
+        while (valid < indexes.length && indexes[valid] >= 0 && indexes[valid] < blockCount) {
+            valid++;
+        }
+        if (valid < 2 || indexes[0] != mainBlock.getNextBlock()) {
+            return null;
+        }
+        return valid == indexes.length ? indexes : Arrays.copyOf(indexes, valid);
+    }
+
+    // directory is only a hint, list ends at first block whose link does not lead to next prefetched block
+    private ArrayList<LinkedBlock<T>> confirmedBlocks(int[] indexes, ArrayList<Block<T>> blocks) {
+        ArrayList<LinkedBlock<T>> chain = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            LinkedBlock<T> block = (LinkedBlock<T>) blocks.get(i);
+            if (block == null) {
+                break;
+            }
+            chain.add(block);
+            if (i + 1 < indexes.length && block.getNextBlock() != indexes[i + 1]) {
+                break;
+            }
+        }
+        return chain;
+    }
+
+    // walk by links continues here
+    private int nextAfter(int[] indexes, ArrayList<LinkedBlock<T>> chain) {
+        return chain.isEmpty() ? indexes[0] : chain.getLast().getNextBlock();
+    }
+
+    // new position of every chain block, null when chain stays where it is
+    // lowest run of adjacent blocks free or owned by chain is taken
+    // scattered chain without such run is at least relinked in ascending order of its own blocks
+    synchronized int[] allocateRun(ArrayList<Integer> chainIndexes) {
+        int length = chainIndexes.size();
+        boolean contiguous = true;
+        boolean ascending = true;
+        for (int i = 1; i < length; i++) {
+            contiguous &= chainIndexes.get(i) == chainIndexes.get(i - 1) + 1;
+            ascending &= chainIndexes.get(i) > chainIndexes.get(i - 1);
+        }
+
+        // no free block below packed chain
+        int firstFree = emptyBlocks.findMin();
+        if (contiguous && (firstFree == -1 || firstFree > chainIndexes.get(0))) {
+            return null;
+        }
+
+        int[] own = new int[length];
+        for (int i = 0; i < length; i++) {
+            own[i] = chainIndexes.get(i);
+        }
+        Arrays.sort(own);
+
+        int start = findRun(length, own);
+        // packed chain moves only into hole below it, not by few blocks at a time
+        // scattered chain may go past end only when free blocks inside file could take it back later
+        boolean move = contiguous ? start + length <= chainIndexes.get(0) : start + length <= blockCount || emptyBlocks.size() >= length;
+        if (!move) {
+            return contiguous || ascending ? null : own;
+        }
+
+        int[] targets = new int[length];
+        for (int i = 0; i < length; i++) {
+            targets[i] = start + i;
+            emptyBlocks.remove(start + i);
+        }
+        blockCount = Math.max(blockCount, start + length);
+        return targets;
+    }
+
+    private int findRun(int length, int[] own) {
+        int from = 0;
+        while (true) {
+            int start = nextFree(from, own);
+            int end = start + 1;
+            while (end < start + length && isFree(end, own)) {
+                end++;
+            }
+            if (end == start + length) {
+                return start;
+            }
+            from = end + 1;
+        }
+    }
+
+    private int nextFree(int from, int[] own) {
+        if (from >= blockCount) {
+            return from;
+        }
+        int next = emptyBlocks.nextSetBit(from);
+        if (next == -1 || next > blockCount) {
+            next = blockCount;
+        }
+        int o = Arrays.binarySearch(own, from);
+        if (o < 0) {
+            o = -o - 1;
+        }
+        return o < own.length ? Math.min(next, own[o]) : next;
+    }
+
+    private boolean isFree(int blockIndex, int[] own) {
+        return blockIndex >= blockCount || emptyBlocks.contains(blockIndex) || Arrays.binarySearch(own, blockIndex) >= 0;
+    }
+
     public ArrayList<LinkedBlock<T>> getBlockChain(int startBlockIndex) {
         ArrayList<LinkedBlock<T>> linkedBlocks = new ArrayList<>();
 
@@ -183,8 +500,34 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
         return linkedBlocks;
     }
 
-    public int getCapacity() {
-        return (this.blockCount - emptyBlocks.getNodeCount()) * this.recordsPerBlock;
+    public synchronized int getCapacity() {
+        return (this.blockCount - emptyBlocks.size()) * this.recordsPerBlock;
+    }
+
+    BlockStorage getStorage() {
+        return file;
+    }
+
+    void attachLog(WriteAheadLog log, int fileId) throws IOException {
+        this.file = log.attach(file, fileId, blockSize);
+        this.deferFrees = true;
+    }
+
+    synchronized void flush() throws IOException {
+        file.flush();
+        saveHeapFile();
+    }
+
+    // after recovery, blocks not used by any chain are free
+    synchronized void rebuildEmptyBlocks(int blockCount, boolean[] usedBlocks) {
+        this.blockCount = blockCount;
+        emptyBlocks.clear();
+        partiallyEmptyBlocks.clear();
+        for (int i = 0; i < blockCount; i++) {
+            if (i >= usedBlocks.length || !usedBlocks[i]) {
+                emptyBlocks.insert(i);
+            }
+        }
     }
 
     @Override
@@ -192,7 +535,7 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
         return new LinkedBlock<>(recordsPerBlock, recordClass);
     }
 
-    private int createNewBlockInChain(T record, int lastBlockIndex) {
+    private synchronized int createNewBlockInChain(T record, int lastBlockIndex) {
 
         if (!emptyBlocks.isEmpty()) {
             int firstEmptyBlockIndex = emptyBlocks.findMin();
@@ -237,11 +580,22 @@ public class OverflowFile<T extends IRecord<T>> extends HeapFile<T> {
         return -1;
     }
 
+    // only blocks in free list are cut, allocated block can still be empty before it is written
+    @Override
+    public synchronized void truncateEmptyBlocksAtEnd() {
+        super.truncateEmptyBlocksAtEnd();
+    }
+
     @Override
     protected LinkedBlock<T> loadBlock(int blockIndex) {
         return (LinkedBlock<T>) super.loadBlock(blockIndex);
     }
 
+    @Override
+    protected LinkedBlock<T> loadReadOnlyBlock(int blockIndex) {
+        return (LinkedBlock<T>) super.loadReadOnlyBlock(blockIndex);
+    }
+
     @Override
     public void printAllBlocks() {
         System.out.println("=== OVERFLOW FILE ===");
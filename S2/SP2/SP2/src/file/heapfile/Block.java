@@ -3,28 +3,91 @@ package file.heapfile;
 import whoApp.data.IBinarySerializable;
 import whoApp.data.IRecord;
 
-import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Block<T extends IRecord<T>> implements IBinarySerializable<Block<T>> {
+    private static final ClassValue<IRecord<?>> PROTOTYPES = new ClassValue<>() {
+        @Override
+        protected IRecord<?> computeValue(Class<?> type) {
+            try {
+                return (IRecord<?>) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Error creating record instance", e);
+            }
+        }
+    };
+
     protected int capacity;
-    protected ArrayList<T> records;
+    protected ArrayList<T> records; // null = not decoded yet
     protected int validCount;
     protected Class<T> recordClass;
+    protected int recordSize;
+    protected T prototype;
+
+    // raw bytes of valid slots from last readFrom, slots are decoded on demand
+    protected byte[] source;
+    protected ByteBuffer sourceBuffer;
+    private T scratch;
 
     public Block(int capacity, Class<T> recordClass) {
         this.recordClass = recordClass;
         this.records = new ArrayList<>(capacity);
         this.capacity = capacity;
         this.validCount = 0;
+        this.prototype = recordClass.cast(PROTOTYPES.get(recordClass));
+        this.recordSize = prototype.getSize();
 
         for (int i = 0; i < capacity; i++) {
-            try {
-                records.add(recordClass.newInstance().createClass());
-            } catch (InstantiationException | IllegalAccessException e) {
-                throw new RuntimeException("Error creating record instance", e);
+            records.add(null);
+        }
+    }
+
+    // decodes slot if needed
+    protected T record(int index) {
+        T record = records.get(index);
+        if (record == null) {
+            record = prototype.createClass().readFrom(sourceBuffer, index * recordSize);
+            records.set(index, record);
+        }
+        return record;
+    }
+
+    // key bytes for record, null if record type has no binary key
+    public static <T extends IRecord<T>> byte[] encodeKey(T record) {
+        if (record.getKeyOffset() < 0 || record.getKeyLength() <= 0) {
+            return null;
+        }
+        byte[] key = new byte[record.getKeyLength()];
+        record.writeKeyTo(ByteBuffer.wrap(key));
+        return key;
+    }
+
+    protected int indexOf(T record, byte[] key) {
+        int keyOffset = prototype.getKeyOffset();
+        for (int i = 0; i < validCount; i++) {
+            T current = records.get(i);
+            if (current == null && key != null) {
+                // raw slot, compare key bytes only
+                int from = i * recordSize + keyOffset;
+                if (Arrays.equals(source, from, from + key.length, key, 0, key.length)) {
+                    return i;
+                }
+                continue;
+            }
+            if (current == null) {
+                // compare in reused instance, nothing is materialized
+                if (scratch == null) {
+                    scratch = prototype.createClass();
+                }
+                current = scratch.readFrom(sourceBuffer, i * recordSize);
+            }
+            if (current.isEqualTo(record)) {
+                return i;
             }
         }
+        return -1;
     }
 
     public boolean addRecord(T record) {
@@ -46,71 +109,79 @@ public class Block<T extends IRecord<T>> implements IBinarySerializable<Block<T>
     }
 
     public boolean deleteRecord(T record) {
-        if (!isEmpty()) {
-            for (int i = 0; i < validCount; i++) {
-                T current = records.get(i);
-                if (current != null && current.isEqualTo(record)) {
-                    if (i != validCount - 1) {
-                        records.set(i, records.get(validCount - 1));
-                    }
-                    validCount--;
-                    return true;
-                }
-            }
+        return deleteRecord(record, encodeKey(record));
+    }
+
+    public boolean deleteRecord(T record, byte[] key) {
+        int i = indexOf(record, key);
+        if (i == -1) {
+            return false;
         }
-        return false;
+        if (i != validCount - 1) {
+            records.set(i, record(validCount - 1));
+        }
+        records.set(validCount - 1, null);
+        validCount--;
+        return true;
     }
 
     public boolean editRecord(T editedRecord) {
-        if (!isEmpty()) {
-            for (int i = 0; i < validCount; i++) {
-                T current = records.get(i);
-                if (current != null && current.isEqualTo(editedRecord)) {
-                    records.set(i, editedRecord);
-                    return true;
-                }
-            }
+        return editRecord(editedRecord, encodeKey(editedRecord));
+    }
+
+    public boolean editRecord(T editedRecord, byte[] key) {
+        int i = indexOf(editedRecord, key);
+        if (i == -1) {
+            return false;
         }
-        return false;
+        records.set(i, editedRecord);
+        return true;
     }
 
     public T getRecord(int index) {
         if (index < 0 || index >= validCount) {
             return null;
         }
-        return records.get(index);
+        return record(index);
     }
 
     public T getRecord(T  record) {
-        for (int i = 0; i < validCount; i++) {
-            T current = records.get(i);
-            if (current != null && current.isEqualTo(record)) {
-                return current;
-            }
-        }
-        return null;
+        return getRecord(record, encodeKey(record));
+    }
+
+    public T getRecord(T record, byte[] key) {
+        int i = indexOf(record, key);
+        return i == -1 ? null : record(i);
     }
 
     public ArrayList<T> getRecords() {
         ArrayList<T> r =  new ArrayList<>(validCount);
         for (int i = 0; i < validCount; i++) {
-            r.add(records.get(i));
+            r.add(record(i));
         }
         return r;
     }
 
     public ArrayList<T> removeRecords() {
         ArrayList<T> r =  getRecords();
-        validCount = 0;
+        dropRecords();
         return r;
     }
 
     public ArrayList<T> clear() {
         ArrayList<T> r =  getRecords();
-        validCount = 0;
+        dropRecords();
         return r;
     }
 
+    // slots past valid count are always empty, so reading into block clears only valid ones
+    protected void dropRecords() {
+        for (int i = 0; i < validCount; i++) {
+            records.set(i, null);
+        }
+        validCount = 0;
+    }
+
     public int getValidCount() {
         return validCount;
     }
@@ -121,61 +192,60 @@ public class Block<T extends IRecord<T>> implements IBinarySerializable<Block<T>
 
     @Override
     public int getSize() {
-        try {
-            //validCount + records
-            return Integer.BYTES + recordClass.newInstance().getSize() * capacity;
-        } catch (InstantiationException | IllegalAccessException e) {
-            System.out.println("Cannot get record size");;
-        }
-        return -1;
+        //validCount + records
+        return Integer.BYTES + recordSize * capacity;
     }
 
     @Override
     public byte[] getBytes() {
-        ByteArrayOutputStream hlpByteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream hlpOutStream = new DataOutputStream(hlpByteArrayOutputStream);
+        byte[] bytes = new byte[getSize()];
+        writeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Override
+    public Block<T> fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes), 0);
+    }
 
-        try {
-            // validCount
-            hlpOutStream.writeInt(validCount);
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        // validCount
+        buffer.putInt(validCount);
 
-            // records
-            for (T record : records) {
-                hlpOutStream.write(record.getBytes());
+        // records, not decoded slots are copied as they are
+        for (int i = 0; i < validCount; i++) {
+            T record = records.get(i);
+            if (record != null) {
+                record.writeTo(buffer);
+            } else {
+                buffer.put(source, i * recordSize, recordSize);
             }
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion to byte array.");
         }
 
-        return hlpByteArrayOutputStream.toByteArray();
+        // empty slots
+        int end = buffer.position() + (capacity - validCount) * recordSize;
+        while (buffer.position() + Long.BYTES <= end) {
+            buffer.putLong(0L);
+        }
+        while (buffer.position() < end) {
+            buffer.put((byte) 0);
+        }
     }
 
     @Override
-    public Block<T> fromBytes(byte[] bytes) {
-        ByteArrayInputStream hlpByteArrayInputStream = new ByteArrayInputStream(bytes);
-        DataInputStream hlpInStream = new DataInputStream(hlpByteArrayInputStream);
-
-        try {
-            T sampleRecord = recordClass.newInstance().createClass();
-            int recordSize = sampleRecord.getSize();
-
-            // validCount
-            this.validCount = hlpInStream.readInt();
-
-            // records
-            for (int i = 0; i < capacity; i++) {
-                byte[] recordBytes = new byte[recordSize];
-                int bytesRead = hlpInStream.read(recordBytes);
-                if (bytesRead == recordSize) {
-                    records.get(i).fromBytes(recordBytes);
-                }
-            }
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion from byte array.", e);
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new RuntimeException("Error creating record instance.", e);
+    public Block<T> readFrom(ByteBuffer buffer, int offset) {
+        // validCount
+        dropRecords();
+        this.validCount = buffer.getInt(offset);
+
+        // records are kept raw until needed, source is reused when block is read again
+        int length = validCount * recordSize;
+        if (source == null || source.length < length) {
+            source = new byte[capacity * recordSize];
+            sourceBuffer = ByteBuffer.wrap(source);
         }
+        buffer.get(offset + Integer.BYTES, source, 0, length);
 
         return this;
     }
@@ -194,8 +264,8 @@ public class Block<T extends IRecord<T>> implements IBinarySerializable<Block<T>
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("- %s (valid=%d, capacity=%d)\n", status, validCount, capacity));
         for (int i = 0; i < capacity; i++) {
-            T record = records.get(i);
             if (i < validCount) {
+                T record = record(i);
                 sb.append(String.format("  [%d]: %s\n", i, record != null ? record.toString() : "EMPTY"));
             } else {
                 sb.append(String.format("  [%d]: EMPTY\n", i));
@@ -0,0 +1,210 @@
+package file.heapfile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// set of block indexes, one bit per block
+// summary has one bit per non empty word, first set bit is found without scanning empty words
+public class BlockBitmap implements Iterable<Integer> {
+    private long[] words = new long[1];
+    private long[] summary = new long[1];
+    private int count;
+
+    public boolean insert(int index) {
+        if (index < 0) {
+            return false;
+        }
+        int word = index >>> 6;
+        ensureCapacity(word + 1);
+
+        long bit = 1L << index;
+        if ((words[word] & bit) != 0) {
+            return false;
+        }
+        words[word] |= bit;
+        summary[word >>> 6] |= 1L << word;
+        count++;
+        return true;
+    }
+
+    public boolean remove(int index) {
+        int word = index >>> 6;
+        if (index < 0 || word >= words.length) {
+            return false;
+        }
+
+        long bit = 1L << index;
+        if ((words[word] & bit) == 0) {
+            return false;
+        }
+        words[word] &= ~bit;
+        if (words[word] == 0) {
+            summary[word >>> 6] &= ~(1L << word);
+        }
+        count--;
+        return true;
+    }
+
+    public boolean contains(int index) {
+        int word = index >>> 6;
+        return index >= 0 && word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    // -1 if empty
+    public int findMin() {
+        return nextSetBit(0);
+    }
+
+    // first index >= fromIndex, -1 if none
+    public int nextSetBit(int fromIndex) {
+        int word = fromIndex >>> 6;
+        if (word >= words.length) {
+            return -1;
+        }
+
+        long bits = words[word] & (-1L << fromIndex);
+        if (bits != 0) {
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        // next non empty word from summary
+        int nextWord = word + 1;
+        int s = nextWord >>> 6;
+        if (s >= summary.length) {
+            return -1;
+        }
+        long summaryBits = summary[s] & (-1L << nextWord);
+        while (summaryBits == 0) {
+            if (++s >= summary.length) {
+                return -1;
+            }
+            summaryBits = summary[s];
+        }
+        int found = (s << 6) + Long.numberOfTrailingZeros(summaryBits);
+        return (found << 6) + Long.numberOfTrailingZeros(words[found]);
+    }
+
+    // 64 indexes from wordIndex * 64
+    long getWord(int wordIndex) {
+        return wordIndex < words.length ? words[wordIndex] : 0;
+    }
+
+    void setWord(int wordIndex, long bits) {
+        ensureCapacity(wordIndex + 1);
+        count += Long.bitCount(bits) - Long.bitCount(words[wordIndex]);
+        words[wordIndex] = bits;
+        if (bits != 0) {
+            summary[wordIndex >>> 6] |= 1L << wordIndex;
+        } else {
+            summary[wordIndex >>> 6] &= ~(1L << wordIndex);
+        }
+    }
+
+    // last index <= fromIndex not in set, -1 if none
+    public int previousClearBit(int fromIndex) {
+        if (fromIndex < 0) {
+            return -1;
+        }
+        int word = fromIndex >>> 6;
+        if (word >= words.length) {
+            return fromIndex;
+        }
+
+        long bits = ~words[word] & (-1L >>> (63 - (fromIndex & 63)));
+        while (bits == 0) {
+            if (--word < 0) {
+                return -1;
+            }
+            bits = ~words[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        Arrays.fill(summary, 0);
+        count = 0;
+    }
+
+    // trailing empty words are not written
+    public void writeTo(DataOutputStream dos) throws IOException {
+        int wordCount = words.length;
+        while (wordCount > 0 && words[wordCount - 1] == 0) {
+            wordCount--;
+        }
+        dos.writeInt(wordCount);
+        for (int i = 0; i < wordCount; i++) {
+            dos.writeLong(words[i]);
+        }
+    }
+
+    public void readFrom(DataInputStream dis) throws IOException {
+        int wordCount = dis.readInt();
+        words = new long[Math.max(1, wordCount)];
+        summary = new long[Math.max(1, (words.length + 63) >>> 6)];
+        count = 0;
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = dis.readLong();
+            if (words[i] != 0) {
+                summary[i >>> 6] |= 1L << i;
+                count += Long.bitCount(words[i]);
+            }
+        }
+    }
+
+    private void ensureCapacity(int wordCount) {
+        if (wordCount > words.length) {
+            words = Arrays.copyOf(words, Math.max(wordCount, words.length * 2));
+            int summaryCount = (words.length + 63) >>> 6;
+            if (summaryCount > summary.length) {
+                summary = Arrays.copyOf(summary, summaryCount);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<>() {
+            private int next = findMin();
+
+            @Override
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            @Override
+            public Integer next() {
+                if (next == -1) {
+                    throw new NoSuchElementException();
+                }
+                int current = next;
+                next = current == Integer.MAX_VALUE ? -1 : nextSetBit(current + 1);
+                return current;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int index = findMin(); index != -1; index = nextSetBit(index + 1)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(index);
+        }
+        return sb.append("]").toString();
+    }
+}
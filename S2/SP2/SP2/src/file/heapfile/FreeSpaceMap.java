@@ -0,0 +1,433 @@
+package file.heapfile;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// empty and partially empty block sets stored in fixed size pages, page 0 is header with counts and bit for every non empty page
+// page is read first time it is needed, changed pages are written every FLUSH_INTERVAL changes and on close
+// sets are hints after crash, blocks are checked before they are reused
+public class FreeSpaceMap {
+    static final int PAGE_SIZE = 4096;
+    private static final int FORMAT = 0x46534D31;
+    private static final int LEGACY_BITMAP_FORMAT = -1; // bitmaps written whole on close
+    private static final int BLOCKS_PER_PAGE = PAGE_SIZE * Byte.SIZE;
+    private static final int WORDS_PER_PAGE = PAGE_SIZE / Long.BYTES;
+    private static final int HEADER_BYTES = 5 * Integer.BYTES; // format, empty count, partial count, clean, block count
+    private static final int SUMMARY_WORDS = (PAGE_SIZE - HEADER_BYTES) / Long.BYTES / 2;
+    private static final int MAX_PAGES = SUMMARY_WORDS * Long.SIZE;
+    private static final int FLUSH_INTERVAL = 256;
+
+    private final FileChannel channel;
+    private final ByteBuffer pageBuffer = ByteBuffer.allocate(PAGE_SIZE);
+    private final BlockSet emptyBlocks = new BlockSet(0);
+    private final BlockSet partiallyEmptyBlocks = new BlockSet(1);
+    private int changes; // since last write
+    private boolean cleanOnDisk; // header says file was closed after last change
+    private boolean exact = true; // false when opened after crash, sets can differ from blocks
+    private int blockCount = -1; // saved on close, -1 if not known
+
+    public FreeSpaceMap(String fileName) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() > 0) {
+            load();
+        }
+        // data file can change before first page is written, map is stale after crash from now on
+        if (cleanOnDisk) {
+            ByteBuffer flag = ByteBuffer.allocate(Integer.BYTES);
+            flag.putInt(0).flip();
+            writeFully(flag, 3 * Integer.BYTES);
+            channel.force(false);
+            cleanOnDisk = false;
+        }
+    }
+
+    public BlockSet getEmptyBlocks() {
+        return emptyBlocks;
+    }
+
+    public BlockSet getPartiallyEmptyBlocks() {
+        return partiallyEmptyBlocks;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    // block count of data file at last close
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    // changed pages and header, made durable
+    public void flush() {
+        try {
+            writeChanges(false);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error saving free space map.", e);
+        }
+    }
+
+    public void close(int blockCount) {
+        this.blockCount = blockCount;
+        try {
+            writeChanges(true);
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error closing free space map.", e);
+        }
+    }
+
+    private void changed() {
+        if (++changes >= FLUSH_INTERVAL) {
+            try {
+                writeChanges(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error saving free space map.", e);
+            }
+        }
+    }
+
+    // header is marked not clean on open, only close writes it clean
+    private void writeChanges(boolean clean) throws IOException {
+        if (changes == 0 && !clean) {
+            return;
+        }
+
+        emptyBlocks.writeDirtyPages();
+        partiallyEmptyBlocks.writeDirtyPages();
+
+        pageBuffer.clear();
+        pageBuffer.putInt(FORMAT);
+        pageBuffer.putInt(emptyBlocks.count);
+        pageBuffer.putInt(partiallyEmptyBlocks.count);
+        pageBuffer.putInt(clean ? 1 : 0);
+        pageBuffer.putInt(blockCount);
+        emptyBlocks.writeSummary(pageBuffer);
+        partiallyEmptyBlocks.writeSummary(pageBuffer);
+        pageBuffer.flip();
+        writeFully(pageBuffer, 0);
+
+        cleanOnDisk = clean;
+        changes = 0;
+    }
+
+    private void load() throws IOException {
+        pageBuffer.clear();
+        readFully(pageBuffer, 0);
+        if (pageBuffer.getInt(0) != FORMAT) {
+            loadLegacy();
+            return;
+        }
+
+        pageBuffer.position(HEADER_BYTES);
+        emptyBlocks.readSummary(pageBuffer);
+        partiallyEmptyBlocks.readSummary(pageBuffer);
+        emptyBlocks.count = pageBuffer.getInt(Integer.BYTES);
+        partiallyEmptyBlocks.count = pageBuffer.getInt(2 * Integer.BYTES);
+        cleanOnDisk = pageBuffer.getInt(3 * Integer.BYTES) == 1;
+
+        if (cleanOnDisk) {
+            blockCount = pageBuffer.getInt(4 * Integer.BYTES);
+        } else {
+            // last write was interrupted, every page is read to rebuild summary and counts
+            exact = false;
+            emptyBlocks.readAllPages();
+            partiallyEmptyBlocks.readAllPages();
+        }
+    }
+
+    // block count and lists of indexes, or block count and whole bitmaps, rewritten in paged format
+    private void loadLegacy() throws IOException {
+        BlockBitmap empty = new BlockBitmap();
+        BlockBitmap partial = new BlockBitmap();
+
+        DataInputStream dis = new DataInputStream(Channels.newInputStream(channel.position(0)));
+        blockCount = dis.readInt(); // written on close together with lists
+        int emptyCount = dis.readInt();
+        if (emptyCount == LEGACY_BITMAP_FORMAT) {
+            empty.readFrom(dis);
+            partial.readFrom(dis);
+        } else {
+            for (int i = 0; i < emptyCount; i++) {
+                empty.insert(dis.readInt());
+            }
+            int partialCount = dis.readInt();
+            for (int i = 0; i < partialCount; i++) {
+                partial.insert(dis.readInt());
+            }
+        }
+
+        channel.truncate(0);
+        for (int index : empty) {
+            emptyBlocks.insert(index);
+        }
+        for (int index : partial) {
+            partiallyEmptyBlocks.insert(index);
+        }
+        writeChanges(true);
+    }
+
+    private long pagePosition(int setIndex, int page) {
+        return (1L + 2L * page + setIndex) * PAGE_SIZE;
+    }
+
+    // missing bytes past end of file are zeros
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) {
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    public class BlockSet implements Iterable<Integer> {
+        private final int setIndex;
+        private final BlockBitmap blocks = new BlockBitmap(); // only pages already read
+        private final BlockBitmap pages = new BlockBitmap(); // pages with any block, read or not
+        private final BlockBitmap loadedPages = new BlockBitmap();
+        private final BlockBitmap dirtyPages = new BlockBitmap();
+        private int count;
+
+        private BlockSet(int setIndex) {
+            this.setIndex = setIndex;
+        }
+
+        public boolean insert(int index) {
+            if (index < 0) {
+                return false;
+            }
+            int page = index / BLOCKS_PER_PAGE;
+            if (page >= MAX_PAGES) {
+                throw new IllegalStateException("Free space map supports at most " + MAX_PAGES * BLOCKS_PER_PAGE + " blocks.");
+            }
+
+            load(page);
+            if (!blocks.insert(index)) {
+                return false;
+            }
+            count++;
+            pages.insert(page);
+            dirtyPages.insert(page);
+            changed();
+            return true;
+        }
+
+        public boolean remove(int index) {
+            int page = index / BLOCKS_PER_PAGE;
+            if (index < 0 || !pages.contains(page)) {
+                return false;
+            }
+
+            load(page);
+            if (!blocks.remove(index)) {
+                return false;
+            }
+            count--;
+            int next = blocks.nextSetBit(page * BLOCKS_PER_PAGE);
+            if (next == -1 || next >= (page + 1) * BLOCKS_PER_PAGE) {
+                pages.remove(page);
+            }
+            dirtyPages.insert(page);
+            changed();
+            return true;
+        }
+
+        public boolean contains(int index) {
+            int page = index / BLOCKS_PER_PAGE;
+            if (index < 0 || !pages.contains(page)) {
+                return false;
+            }
+            load(page);
+            return blocks.contains(index);
+        }
+
+        // -1 if empty
+        public int findMin() {
+            return nextSetBit(0);
+        }
+
+        // first index >= fromIndex, -1 if none
+        public int nextSetBit(int fromIndex) {
+            int from = Math.max(fromIndex, 0);
+            for (int page = pages.nextSetBit(from / BLOCKS_PER_PAGE); page != -1; page = pages.nextSetBit(page + 1)) {
+                load(page);
+                int next = blocks.nextSetBit(Math.max(from, page * BLOCKS_PER_PAGE));
+                if (next != -1 && next < (page + 1) * BLOCKS_PER_PAGE) {
+                    return next;
+                }
+            }
+            return -1;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        // last index <= fromIndex not in set, -1 if none
+        public int previousClearBit(int fromIndex) {
+            int index = fromIndex;
+            while (index >= 0) {
+                int page = index / BLOCKS_PER_PAGE;
+                if (!pages.contains(page)) {
+                    return index;
+                }
+                load(page);
+                int clear = blocks.previousClearBit(index);
+                if (clear >= page * BLOCKS_PER_PAGE) {
+                    return clear;
+                }
+                index = page * BLOCKS_PER_PAGE - 1;
+            }
+            return -1;
+        }
+
+        // pages are written as zeros
+        public void clear() {
+            if (pages.isEmpty()) {
+                return;
+            }
+            for (int page : pages) {
+                dirtyPages.insert(page);
+            }
+            blocks.clear();
+            pages.clear();
+            loadedPages.clear();
+            count = 0;
+            changed();
+        }
+
+        // page without blocks is taken as read, stored page can still hold blocks cleared since
+        private void load(int page) {
+            if (loadedPages.contains(page)) {
+                return;
+            }
+            if (!pages.contains(page)) {
+                loadedPages.insert(page);
+                return;
+            }
+            try {
+                readPage(page);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error loading free space page " + page + ".", e);
+            }
+            loadedPages.insert(page);
+        }
+
+        private int readPage(int page) throws IOException {
+            pageBuffer.clear();
+            readFully(pageBuffer, pagePosition(setIndex, page));
+            int pageCount = 0;
+            for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                long bits = pageBuffer.getLong(w * Long.BYTES);
+                if (bits != 0) {
+                    blocks.setWord(page * WORDS_PER_PAGE + w, bits);
+                    pageCount += Long.bitCount(bits);
+                }
+            }
+            return pageCount;
+        }
+
+        private void readAllPages() throws IOException {
+            int pageCount = (int) Math.min(MAX_PAGES, (channel.size() / PAGE_SIZE) / 2);
+            blocks.clear();
+            pages.clear();
+            loadedPages.clear();
+            count = 0;
+            for (int page = 0; page < pageCount; page++) {
+                int blockCount = readPage(page);
+                if (blockCount > 0) {
+                    pages.insert(page);
+                    count += blockCount;
+                }
+                loadedPages.insert(page);
+            }
+        }
+
+        private void writeDirtyPages() throws IOException {
+            for (int page : dirtyPages) {
+                pageBuffer.clear();
+                for (int w = 0; w < WORDS_PER_PAGE; w++) {
+                    pageBuffer.putLong(blocks.getWord(page * WORDS_PER_PAGE + w));
+                }
+                pageBuffer.flip();
+                writeFully(pageBuffer, pagePosition(setIndex, page));
+            }
+            dirtyPages.clear();
+        }
+
+        private void writeSummary(ByteBuffer buffer) {
+            for (int w = 0; w < SUMMARY_WORDS; w++) {
+                buffer.putLong(pages.getWord(w));
+            }
+        }
+
+        private void readSummary(ByteBuffer buffer) {
+            for (int w = 0; w < SUMMARY_WORDS; w++) {
+                long bits = buffer.getLong();
+                if (bits != 0) {
+                    pages.setWord(w, bits);
+                }
+            }
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<>() {
+                private int next = findMin();
+
+                @Override
+                public boolean hasNext() {
+                    return next != -1;
+                }
+
+                @Override
+                public Integer next() {
+                    if (next == -1) {
+                        throw new NoSuchElementException();
+                    }
+                    int current = next;
+                    next = nextSetBit(current + 1);
+                    return current;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int index = findMin(); index != -1; index = nextSetBit(index + 1)) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(index);
+            }
+            return sb.append("]").toString();
+        }
+    }
+}
@@ -1,39 +1,53 @@
 package file.heapfile;
 
+import file.metrics.FileMetrics;
+import file.storage.BlockStorage;
+import file.storage.FileOptions;
 import whoApp.data.IRecord;
-import tree.bs.avl.AVLTree;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class HeapFile<T extends IRecord<T>> {
     protected String fileName;
-    protected RandomAccessFile file;
+    protected BlockStorage file;
     protected String heapFileName;
+    protected FileOptions options;
+    protected ThreadLocal<ByteBuffer> blockBuffers; // reused for every block read/write, one per thread
+    protected ThreadLocal<Block<T>> readBlocks; // reused by lookups that do not keep the block, one per thread
+    protected final FileMetrics metrics = new FileMetrics();
 
     protected Class<T> recordClass;
     protected int recordSize;
     protected int recordsPerBlock;
 
     protected int blockSize;
-    protected int blockCount;
+    protected volatile int blockCount;
 
-    protected AVLTree<Integer> emptyBlocks; //no duplicates
-    protected AVLTree<Integer> partiallyEmptyBlocks; //no duplicates
+    protected FreeSpaceMap freeSpace;
+    protected FreeSpaceMap.BlockSet emptyBlocks;
+    protected FreeSpaceMap.BlockSet partiallyEmptyBlocks;
+    private static final int TRUNCATE_THRESHOLD = 64; // empty blocks past block count before file is cut
 
 
     public HeapFile(String fileName, int blockSize, Class<T> recordClass) throws FileNotFoundException {
+        this(fileName, blockSize, recordClass, new FileOptions());
+    }
+
+    public HeapFile(String fileName, int blockSize, Class<T> recordClass, FileOptions options) throws FileNotFoundException {
         this.fileName = fileName + ".dat";
         this.heapFileName = fileName + "_heap.dat";
+        this.options = options;
         this.blockSize = blockSize;
         this.blockCount = 0;
         this.recordClass = recordClass;
-        this.emptyBlocks = new AVLTree<>();
-        this.partiallyEmptyBlocks = new AVLTree<>();
 
         try {
-            this.recordSize = recordClass.newInstance().getSize();
+            this.recordSize = recordClass.getDeclaredConstructor().newInstance().getSize();
             this.recordsPerBlock = (blockSize - Integer.BYTES) / recordSize; //validCount size
-        } catch (InstantiationException | IllegalAccessException e) {
+        } catch (ReflectiveOperationException e) {
             throw new RuntimeException("Error creating record instance.", e);
         }
 
@@ -42,7 +56,9 @@ public class HeapFile<T extends IRecord<T>> {
         }
 
         try {
-            this.file = new RandomAccessFile(fileName + ".dat", "rw");
+            this.file = options.openStorage(fileName + ".dat", blockSize);
+            this.blockBuffers = ThreadLocal.withInitial(() -> file.allocate(blockSize));
+            this.readBlocks = new ThreadLocal<>();
         } catch (FileNotFoundException e) {
             throw new RuntimeException("Error creating file at " + fileName, e);
         }
@@ -51,22 +67,30 @@ public class HeapFile<T extends IRecord<T>> {
     }
 
     public int insert(T record) {
-        // partially empty block
-        if (!partiallyEmptyBlocks.isEmpty()) {
+        // partially empty block, full block can be left in map after crash
+        while (!partiallyEmptyBlocks.isEmpty()) {
             int blockIndex = partiallyEmptyBlocks.findMin();
             Block<T> block = loadBlock(blockIndex);
-            if (block.addRecord(record)) {
+            if (block != null && block.addRecord(record)) {
                 saveBlockToFile(blockIndex, block);
                 if (block.isFull()) {
                     partiallyEmptyBlocks.remove(blockIndex);
                 }
                 return blockIndex;
             }
+            partiallyEmptyBlocks.remove(blockIndex);
         }
 
-        // empty block
-        if (!emptyBlocks.isEmpty()) {
+        // empty block, checked before it is overwritten if map was not closed properly
+        while (!emptyBlocks.isEmpty()) {
             int blockIndex = emptyBlocks.findMin();
+            emptyBlocks.remove(blockIndex);
+            if (!freeSpace.isExact()) {
+                Block<T> current = loadBlock(blockIndex);
+                if (current != null && !current.isEmpty()) {
+                    continue;
+                }
+            }
 
             Block<T> block = createNewBlock();
             if (block.addRecord(record)) {
@@ -94,7 +118,7 @@ public class HeapFile<T extends IRecord<T>> {
     }
 
     public T get(int blockIndex, int recordIndex) {
-        Block<T> block = loadBlock(blockIndex);
+        Block<T> block = loadReadOnlyBlock(blockIndex);
         if (block != null) {
             return block.getRecord(recordIndex);
         }
@@ -102,7 +126,7 @@ public class HeapFile<T extends IRecord<T>> {
     }
 
     public T get(int blockIndex, T record) {
-        Block<T> block = loadBlock(blockIndex);
+        Block<T> block = loadReadOnlyBlock(blockIndex);
         if (block != null) {
             return block.getRecord(record);
         }
@@ -130,13 +154,15 @@ public class HeapFile<T extends IRecord<T>> {
                     partiallyEmptyBlocks.insert(blockIndex);
                 }
             } else if (block.isEmpty()) {
-                partiallyEmptyBlocks.remove(Integer.valueOf(blockIndex));
+                partiallyEmptyBlocks.remove(blockIndex);
                 emptyBlocks.insert(blockIndex);
 
             }
         }
         saveBlockToFile(blockIndex, block);
-        truncateEmptyBlocksAtEnd();
+        if (block.isEmpty() && (blockIndex == blockCount - 1 || !freeSpace.isExact())) {
+            truncateEmptyBlocksAtEnd();
+        }
 
         return true;
     }
@@ -148,23 +174,26 @@ public class HeapFile<T extends IRecord<T>> {
     protected void saveBlockToFile(int blockIndex, Block<T> block) {
         try {
             long position = (long) blockIndex * blockSize;
-            file.seek(position);
 
-            byte[] data = block.getBytes();
-
-            if (data.length > blockSize) {
+            int size = block.getSize();
+            if (size > blockSize) {
                 throw new IllegalStateException(
-                        "Block bytes larger than blockSize! data=" + data.length + ", blockSize=" + blockSize
+                        "Block bytes larger than blockSize! data=" + size + ", blockSize=" + blockSize
                 );
             }
 
-            if (data.length < blockSize) {
-                byte[] padded = new byte[blockSize];
-                System.arraycopy(data, 0, padded, 0, data.length);
-                file.write(padded);
-            } else {
-                file.write(data);
+            ByteBuffer blockBuffer = blockBuffers.get();
+            blockBuffer.clear();
+            block.writeTo(blockBuffer);
+
+            // padding
+            while (blockBuffer.hasRemaining()) {
+                blockBuffer.put((byte) 0);
             }
+            blockBuffer.flip();
+            long start = System.nanoTime();
+            file.write(position, blockBuffer);
+            metrics.recordWrite(blockSize, System.nanoTime() - start);
         } catch (IOException e) {
             throw new IllegalStateException("Error saving block in file.", e);
         }
@@ -172,22 +201,49 @@ public class HeapFile<T extends IRecord<T>> {
 
 
     protected Block<T> loadBlock(int blockIndex) {
+        ByteBuffer blockBuffer = readBlockBuffer(blockIndex);
+        if (blockBuffer == null) {
+            return null;
+        }
+
+        Block<T> block = createNewBlock();
+        block.readFrom(blockBuffer, 0);
+        return block;
+    }
+
+    // block of this thread read again, valid only until next such load, must not be kept or saved
+    protected Block<T> loadReadOnlyBlock(int blockIndex) {
+        ByteBuffer blockBuffer = readBlockBuffer(blockIndex);
+        if (blockBuffer == null) {
+            return null;
+        }
+
+        Block<T> block = readBlocks.get();
+        if (block == null) {
+            block = createNewBlock();
+            readBlocks.set(block);
+        }
+        block.readFrom(blockBuffer, 0);
+        return block;
+    }
+
+    // thread buffer with block bytes, null when block is past end or could not be read
+    private ByteBuffer readBlockBuffer(int blockIndex) {
         try {
             long position = (long) blockIndex * blockSize;
             if (position >= file.length()) {
                 return null;
             }
 
-            file.seek(position);
-            byte[] blockBytes = new byte[blockSize];
-            int bytesRead = file.read(blockBytes);
+            ByteBuffer blockBuffer = blockBuffers.get();
+            blockBuffer.clear();
+            long start = System.nanoTime();
+            int bytesRead = file.read(position, blockBuffer);
+            metrics.recordRead(bytesRead, System.nanoTime() - start);
             if (bytesRead == -1) {
                 return null;
             }
-
-            Block<T> block = createNewBlock();
-            block.fromBytes(blockBytes);
-            return block;
+            return blockBuffer;
 
         } catch (IOException e) {
             System.out.println("Error loading block " + blockIndex);
@@ -195,97 +251,95 @@ public class HeapFile<T extends IRecord<T>> {
         }
     }
 
-    private void saveHeapFile() {
-        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(heapFileName))) {
-            dos.writeInt(blockCount);
-
-            int eSize = emptyBlocks.getNodeCount();
-            dos.writeInt(eSize);
-            if (eSize > 0) {
-                for (Integer blockIndex : emptyBlocks) {
-                    dos.writeInt(blockIndex);
-                }
-            }
-
-            int peSize = partiallyEmptyBlocks.getNodeCount();
-            dos.writeInt(peSize);
-            if (peSize > 0) {
-                for (Integer blockIndex : partiallyEmptyBlocks) {
-                    dos.writeInt(blockIndex);
-                }
+    // own buffer, completion runs in storage thread
+    protected CompletableFuture<Block<T>> loadBlockAsync(int blockIndex) {
+        ByteBuffer buffer = file.allocate(blockSize);
+        long start = System.nanoTime();
+        return file.readAsync((long) blockIndex * blockSize, buffer).thenApply(bytesRead -> {
+            metrics.recordRead(bytesRead, System.nanoTime() - start);
+            if (bytesRead == -1) {
+                return null;
             }
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Error saving header file.", e);
-        }
+            Block<T> block = createNewBlock();
+            block.readFrom(buffer, 0);
+            return block;
+        });
     }
 
-    private void loadHeapFile() {
-        File headerFile = new File(heapFileName);
-        if (!headerFile.exists()) {
-            // initialize
-            this.blockCount = 0;
-            return;
+    // every read is issued before any is waited for, block that could not be read is null
+    protected CompletableFuture<ArrayList<Block<T>>> loadBlocksAsync(int[] blockIndexes) {
+        ArrayList<CompletableFuture<Block<T>>> reads = new ArrayList<>(blockIndexes.length);
+        for (int blockIndex : blockIndexes) {
+            reads.add(loadBlockAsync(blockIndex).exceptionally(e -> null));
         }
 
-        try (DataInputStream dis = new DataInputStream(new FileInputStream(headerFile))) {
-            this.blockCount = dis.readInt();
-
-            int emptyCount = dis.readInt();
-            emptyBlocks.clear();
-            for (int i = 0; i < emptyCount; i++) {
-                emptyBlocks.insert(dis.readInt());
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            ArrayList<Block<T>> blocks = new ArrayList<>(reads.size());
+            for (CompletableFuture<Block<T>> read : reads) {
+                blocks.add(read.join());
             }
+            return blocks;
+        });
+    }
 
-            int partialCount = dis.readInt();
-            partiallyEmptyBlocks.clear();
-            for (int i = 0; i < partialCount; i++) {
-                partiallyEmptyBlocks.insert(dis.readInt());
-            }
+    // changed free space pages, map is written incrementally during operations
+    protected void saveHeapFile() {
+        freeSpace.flush();
+    }
 
+    // block count saved on close, data file length after crash, free space pages are read when needed
+    private void loadHeapFile() {
+        try {
+            this.freeSpace = new FreeSpaceMap(heapFileName);
+            int fileBlockCount = (int) (file.length() / blockSize);
+            int savedBlockCount = freeSpace.getBlockCount();
+            this.blockCount = savedBlockCount >= 0 ? Math.min(savedBlockCount, fileBlockCount) : fileBlockCount;
         } catch (IOException e) {
             throw new IllegalStateException("Error loading header file.", e);
         }
+        this.emptyBlocks = freeSpace.getEmptyBlocks();
+        this.partiallyEmptyBlocks = freeSpace.getPartiallyEmptyBlocks();
     }
 
+    // last block not in empty set, after crash blocks are loaded from end because map can be stale
     protected int getLastNonEmptyBlock() {
-        int lastNonEmptyBlock = -1;
+        if (freeSpace.isExact()) {
+            return emptyBlocks.previousClearBit(blockCount - 1);
+        }
 
-        // finding last non empty block
         for (int i = blockCount - 1; i >= 0; i--) {
             Block<T> block = loadBlock(i);
             if (block != null && !block.isEmpty()) {
-                lastNonEmptyBlock = i;
-                break;
+                if (emptyBlocks.remove(i) && block.isPartiallyEmpty()) {
+                    partiallyEmptyBlocks.insert(i);
+                }
+                return i;
             }
         }
-        return lastNonEmptyBlock;
+        return -1;
     }
 
+    // empty blocks at end leave block count at once, file is cut when enough of them are past end
     public void truncateEmptyBlocksAtEnd() {
-        int lastNonEmptyBlock = getLastNonEmptyBlock();
-
-        // all empty
-        if (lastNonEmptyBlock == -1) {
-            if (blockCount > 0) {
-                truncateToBlock(0);
-                blockCount = 0;
-                emptyBlocks.clear();
-                partiallyEmptyBlocks.clear();
-            }
-            return;
-        }
-
-        int newBlockCount = lastNonEmptyBlock + 1;
+        int newBlockCount = getLastNonEmptyBlock() + 1;
 
         if (newBlockCount < blockCount) {
             for (int i = blockCount - 1; i >= newBlockCount; i--) {
-                emptyBlocks.remove(Integer.valueOf(i));
-                partiallyEmptyBlocks.remove(Integer.valueOf(i));
+                emptyBlocks.remove(i);
+                partiallyEmptyBlocks.remove(i);
             }
-
-            truncateToBlock(newBlockCount);
             this.blockCount = newBlockCount;
+            truncateFile(TRUNCATE_THRESHOLD);
+        }
+    }
+
+    private void truncateFile(int threshold) {
+        try {
+            if (file.length() / blockSize - blockCount >= threshold) {
+                truncateToBlock(blockCount);
+            }
+        } catch (IOException e) {
+            System.out.println("Error truncating block " + blockCount + "!");
         }
     }
 
@@ -307,15 +361,26 @@ public class HeapFile<T extends IRecord<T>> {
         return blockCount;
     }
 
+    public FileMetrics getMetrics() {
+        return metrics;
+    }
+
+    // published as MBean until close
+    public void registerMetrics(String type, String name) {
+        metrics.register(type, name);
+    }
+
     public void close() {
-        saveHeapFile();
+        metrics.unregister();
+        truncateFile(1);
+        freeSpace.close(blockCount);
 
         try {
             if (file != null) {
                 file.close();
             }
         } catch (IOException e) {
-            System.out.println("Error closing file!");
+            throw new IllegalStateException("Error closing file.", e); // mapped file can be left longer than its blocks
         }
     }
 
@@ -324,8 +389,8 @@ public class HeapFile<T extends IRecord<T>> {
         System.out.println("File: " + fileName);
         System.out.println("Block size: " + blockSize);
         System.out.println("Records per block: " + recordsPerBlock);
-        System.out.println("Empty blocks: " + emptyBlocks.nodesToString());
-        System.out.println("Partially empty blocks: " + partiallyEmptyBlocks.nodesToString());
+        System.out.println("Empty blocks: " + emptyBlocks);
+        System.out.println("Partially empty blocks: " + partiallyEmptyBlocks);
         System.out.println("Total blocks in file: " + getBlockCount());
         System.out.println();
 
@@ -348,8 +413,8 @@ public class HeapFile<T extends IRecord<T>> {
         sb.append("File: ").append(fileName).append("\n");
         sb.append("Block size: ").append(blockSize).append("\n");
         sb.append("Records per block: ").append(recordsPerBlock).append("\n");
-        sb.append("Empty blocks: ").append(emptyBlocks.nodesToString()).append("\n");
-        sb.append("Partially empty blocks: ").append(partiallyEmptyBlocks.nodesToString()).append("\n");
+        sb.append("Empty blocks: ").append(emptyBlocks).append("\n");
+        sb.append("Partially empty blocks: ").append(partiallyEmptyBlocks).append("\n");
         sb.append("Total blocks in file: ").append(getBlockCount()).append("\n\n");
 
         for (int i = 0; i < getBlockCount(); i++) {
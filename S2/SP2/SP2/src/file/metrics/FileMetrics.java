@@ -0,0 +1,216 @@
+package file.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+// counters of one file, published as file.metrics:type=<type>,name=<name>
+public class FileMetrics implements FileMetricsMBean {
+    private static final String DOMAIN = "file.metrics";
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LogHistogram reads = new LogHistogram();
+    private final LogHistogram writes = new LogHistogram();
+    private final LogHistogram chainHops = new LogHistogram();
+    private final LogHistogram splits = new LogHistogram();
+    private final LogHistogram merges = new LogHistogram();
+    private final LogHistogram shakes = new LogHistogram();
+    private final LongAdder relocatedBlocks = new LongAdder();
+
+    private ObjectName objectName; // null = not registered
+
+    public void recordRead(int bytes, long nanos) {
+        if (bytes > 0) {
+            bytesRead.add(bytes);
+        }
+        reads.record(nanos);
+    }
+
+    public void recordWrite(int bytes, long nanos) {
+        bytesWritten.add(bytes);
+        writes.record(nanos);
+    }
+
+    public void recordLookup() {
+        lookups.increment();
+    }
+
+    public void recordChainWalk(int hops) {
+        chainHops.record(hops);
+    }
+
+    public void recordSplit(long nanos) {
+        splits.record(nanos);
+    }
+
+    public void recordMerge(long nanos) {
+        merges.record(nanos);
+    }
+
+    public void recordShake(long nanos) {
+        shakes.record(nanos);
+    }
+
+    public void recordRelocation(int blocks) {
+        relocatedBlocks.add(blocks);
+    }
+
+    // same name can be registered only once, second file with same name is not published
+    public synchronized void register(String type, String name) {
+        try {
+            ObjectName newName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+            objectName = newName;
+        } catch (JMException e) {
+            System.out.println("Error registering metrics of " + name + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            System.out.println("Error unregistering metrics " + objectName);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getBlockReads() {
+        return reads.getCount();
+    }
+
+    @Override
+    public long getBlockWrites() {
+        return writes.getCount();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getReadMeanMicros() {
+        return reads.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getReadP99Micros() {
+        return reads.getPercentile(0.99) / 1000;
+    }
+
+    @Override
+    public double getWriteMeanMicros() {
+        return writes.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getWriteP99Micros() {
+        return writes.getPercentile(0.99) / 1000;
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getChainWalks() {
+        return chainHops.getCount();
+    }
+
+    @Override
+    public long getChainHops() {
+        return chainHops.getTotal();
+    }
+
+    @Override
+    public double getChainHopsMean() {
+        return chainHops.getMean();
+    }
+
+    @Override
+    public long getChainHopsMax() {
+        return chainHops.getMax();
+    }
+
+    @Override
+    public long getSplits() {
+        return splits.getCount();
+    }
+
+    @Override
+    public double getSplitMeanMicros() {
+        return splits.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getSplitMaxMicros() {
+        return splits.getMax() / 1000;
+    }
+
+    @Override
+    public long getMerges() {
+        return merges.getCount();
+    }
+
+    @Override
+    public double getMergeMeanMicros() {
+        return merges.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getMergeMaxMicros() {
+        return merges.getMax() / 1000;
+    }
+
+    @Override
+    public long getShakes() {
+        return shakes.getCount();
+    }
+
+    @Override
+    public double getShakeMeanMicros() {
+        return shakes.getMean() / 1000.0;
+    }
+
+    @Override
+    public long getShakeMaxMicros() {
+        return shakes.getMax() / 1000;
+    }
+
+    @Override
+    public long getRelocatedBlocks() {
+        return relocatedBlocks.sum();
+    }
+
+    @Override
+    public void reset() {
+        bytesRead.reset();
+        bytesWritten.reset();
+        lookups.reset();
+        reads.reset();
+        writes.reset();
+        chainHops.reset();
+        splits.reset();
+        merges.reset();
+        shakes.reset();
+        relocatedBlocks.reset();
+    }
+}
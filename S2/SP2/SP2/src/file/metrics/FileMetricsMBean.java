@@ -0,0 +1,52 @@
+package file.metrics;
+
+// times in microseconds
+public interface FileMetricsMBean {
+    long getBlockReads();
+
+    long getBlockWrites();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    double getReadMeanMicros();
+
+    long getReadP99Micros();
+
+    double getWriteMeanMicros();
+
+    long getWriteP99Micros();
+
+    long getLookups();
+
+    long getChainWalks();
+
+    long getChainHops();
+
+    double getChainHopsMean();
+
+    long getChainHopsMax();
+
+    long getSplits();
+
+    double getSplitMeanMicros();
+
+    long getSplitMaxMicros();
+
+    long getMerges();
+
+    double getMergeMeanMicros();
+
+    long getMergeMaxMicros();
+
+    long getShakes();
+
+    double getShakeMeanMicros();
+
+    long getShakeMaxMicros();
+
+    long getRelocatedBlocks(); // overflow blocks moved by defragmentation
+
+    void reset();
+}
@@ -0,0 +1,110 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class AsyncFileChannelStorage implements BlockStorage {
+    private final AsynchronousFileChannel channel;
+
+    public AsyncFileChannelStorage(String fileName) throws IOException {
+        this.channel = AsynchronousFileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        return await(readAsync(position, buffer));
+    }
+
+    // completes in channel thread pool when buffer is full or file ends
+    @Override
+    public CompletableFuture<Integer> readAsync(long position, ByteBuffer buffer) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            if (position >= channel.size()) {
+                result.complete(-1);
+                return result;
+            }
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        channel.read(buffer, position, 0, new CompletionHandler<Integer, Integer>() {
+            @Override
+            public void completed(Integer bytesRead, Integer total) {
+                if (bytesRead == -1 || !buffer.hasRemaining()) {
+                    result.complete(bytesRead == -1 ? total : total + bytesRead);
+                    return;
+                }
+                int newTotal = total + bytesRead;
+                channel.read(buffer, position + newTotal, newTotal, this);
+            }
+
+            @Override
+            public void failed(Throwable e, Integer total) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += await(channel.write(buffer, position + total));
+        }
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        long size = channel.size();
+        if (newLength < size) {
+            channel.truncate(newLength);
+        } else if (newLength > size) {
+            write(newLength - 1, ByteBuffer.allocate(1));
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int await(Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for file channel.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error in file channel.", e.getCause());
+        }
+    }
+}
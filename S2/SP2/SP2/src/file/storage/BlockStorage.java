@@ -0,0 +1,34 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+public interface BlockStorage {
+    // reads from position until buffer is full or end of file, -1 if position is past the end
+    int read(long position, ByteBuffer buffer) throws IOException;
+
+    // same as read, storages without async I/O complete it in calling thread
+    default CompletableFuture<Integer> readAsync(long position, ByteBuffer buffer) {
+        try {
+            return CompletableFuture.completedFuture(read(position, buffer));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void write(long position, ByteBuffer buffer) throws IOException;
+
+    long length() throws IOException;
+
+    void setLength(long newLength) throws IOException;
+
+    // buffer suited for this storage, reused by callers for block I/O
+    default ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size);
+    }
+
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,444 @@
+package file.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+public class BufferPool {
+    public static final long DEFAULT_CAPACITY = 8L * 1024 * 1024; // 8 MB
+
+    private final long capacity; // bytes
+    private final ReplacementPolicy policy;
+    private final LinkedHashMap<PageKey, Frame> frames; // access ordered for LRU
+    private final ArrayList<Frame> clock;
+    private int clockHand;
+    private long usedBytes;
+    private int nextFileId;
+    private int writeBacksInProgress;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    public BufferPool(long capacity, ReplacementPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer pool capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.frames = new LinkedHashMap<>(16, 0.75f, policy == ReplacementPolicy.LRU);
+        this.clock = new ArrayList<>();
+        this.clockHand = 0;
+        this.usedBytes = 0;
+        this.nextFileId = 0;
+    }
+
+    public BufferPool(long capacity) {
+        this(capacity, ReplacementPolicy.CLOCK);
+    }
+
+    public BufferPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public synchronized PooledStorage attach(BlockStorage storage, int pageSize) {
+        try {
+            return new PooledStorage(this, storage, nextFileId++, pageSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error attaching file to buffer pool.", e);
+        }
+    }
+
+    // page I/O runs outside pool lock, other pinners of page being read wait on its frame
+    Frame pin(PooledStorage file, long pageIndex, boolean load) throws IOException {
+        Pinned pinned = pinFrame(file, pageIndex, load);
+        if (pinned.loader()) {
+            load(pinned.frame());
+        } else {
+            pinned.frame().awaitLoaded();
+        }
+        return pinned.frame();
+    }
+
+    // frame is pinned when future completes, page missing in pool is read by backing readAsync
+    CompletableFuture<Frame> pinAsync(PooledStorage file, long pageIndex) {
+        Pinned pinned;
+        try {
+            pinned = pinFrame(file, pageIndex, true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Frame frame = pinned.frame();
+        if (pinned.loader()) {
+            ByteBuffer data = frame.data.duplicate();
+            data.clear();
+            file.getBacking().readAsync(pageIndex * file.getPageSize(), data).whenComplete((bytesRead, failure) -> {
+                if (failure != null) {
+                    loadFailed(frame, failure);
+                } else {
+                    zeroRest(data);
+                    frame.loaded.complete(null);
+                }
+            });
+        }
+        return frame.loaded.thenApply(loaded -> frame);
+    }
+
+    // dirty victim is written back by calling thread before frame is made
+    private Pinned pinFrame(PooledStorage file, long pageIndex, boolean load) throws IOException {
+        PageKey key = new PageKey(file.getFileId(), pageIndex);
+        search:
+        while (true) {
+            Frame frame;
+            Frame dirtyVictim = null;
+            boolean loader = false;
+            synchronized (this) {
+                frame = frames.get(key);
+                if (frame != null) {
+                    hits++;
+                } else {
+                    ByteBuffer reused = null;
+                    while (usedBytes + file.getPageSize() > capacity && !frames.isEmpty()) {
+                        Frame victim = findVictim();
+                        if (victim == null) {
+                            awaitWriteBack();
+                            continue search; // page could be read by other thread meanwhile
+                        }
+                        if (victim.dirty) {
+                            dirtyVictim = victim;
+                            startWriteBack(victim);
+                            break;
+                        }
+                        evict(victim);
+                        if (victim.data.capacity() == file.getPageSize() && victim.data.isDirect() == file.isDirect()) {
+                            reused = victim.data;
+                        }
+                    }
+
+                    if (dirtyVictim == null) {
+                        misses++;
+                        frame = new Frame(key, file, reused != null ? reused : file.getBacking().allocate(file.getPageSize()), load);
+                        loader = load;
+                        frames.put(key, frame);
+                        frame.ringIndex = clock.size();
+                        clock.add(frame);
+                        usedBytes += file.getPageSize();
+                    }
+                }
+
+                if (frame != null) {
+                    frame.pinCount++;
+                    frame.referenced = true;
+                }
+            }
+
+            if (dirtyVictim != null) {
+                writeBack(dirtyVictim); // victim is clean on next round unless written again
+                continue;
+            }
+            return new Pinned(frame, loader);
+        }
+    }
+
+    synchronized void unpin(Frame frame, boolean dirty) {
+        if (frame.pinCount <= 0) {
+            throw new IllegalStateException("Unpinning page that is not pinned.");
+        }
+        frame.pinCount--;
+        if (dirty) {
+            frame.dirty = true;
+            frame.version++;
+        }
+    }
+
+    void flush(PooledStorage file) throws IOException {
+        ArrayList<Frame> dirtyFrames = new ArrayList<>();
+        synchronized (this) {
+            awaitWriteBacks(file, 0);
+            for (Frame frame : frames.values()) {
+                if (frame.file == file && frame.dirty) {
+                    startWriteBack(frame);
+                    dirtyFrames.add(frame);
+                }
+            }
+        }
+        IOException failure = null;
+        for (Frame frame : dirtyFrames) {
+            try {
+                writeBack(frame);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // drops all pages of file from pageIndex on, dirty pages are not written
+    synchronized void discard(PooledStorage file, long fromPageIndex) throws IOException {
+        awaitWriteBacks(file, fromPageIndex);
+        Iterator<Frame> it = frames.values().iterator();
+        while (it.hasNext()) {
+            Frame frame = it.next();
+            if (frame.file == file && frame.key.pageIndex >= fromPageIndex) {
+                if (frame.pinCount > 0) {
+                    throw new IllegalStateException("Discarding pinned page " + frame.key.pageIndex + ".");
+                }
+                it.remove();
+                removeFromClock(frame);
+                usedBytes -= frame.data.capacity();
+            }
+        }
+    }
+
+    // frame is pinned by reading thread
+    private void load(Frame frame) throws IOException {
+        PooledStorage file = frame.file;
+        ByteBuffer data = frame.data.duplicate();
+        data.clear();
+        try {
+            file.getBacking().read(frame.key.pageIndex * file.getPageSize(), data);
+        } catch (IOException | RuntimeException e) {
+            loadFailed(frame, e);
+            throw e;
+        }
+        zeroRest(data);
+        frame.loaded.complete(null);
+    }
+
+    private void zeroRest(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            data.put((byte) 0);
+        }
+    }
+
+    // failed frame leaves pool, its waiters get the error
+    private void loadFailed(Frame frame, Throwable failure) {
+        synchronized (this) {
+            if (frames.remove(frame.key, frame)) {
+                removeFromClock(frame);
+                usedBytes -= frame.data.capacity();
+            }
+            frame.pinCount--;
+        }
+        frame.loaded.completeExceptionally(failure);
+    }
+
+    // called with pool lock, pin keeps frame from eviction while it is written
+    private void startWriteBack(Frame frame) {
+        frame.pinCount++;
+        frame.writingBack = true;
+        frame.writeBackVersion = frame.version;
+        writeBacksInProgress++;
+    }
+
+    // page changed during write stays dirty
+    private void writeBack(Frame frame) throws IOException {
+        try {
+            PooledStorage file = frame.file;
+            long position = frame.key.pageIndex * file.getPageSize();
+            int length = (int) Math.min(file.getPageSize(), file.length() - position);
+            if (length > 0) {
+                ByteBuffer data = frame.data.duplicate();
+                data.clear();
+                data.limit(length);
+                file.getBacking().write(position, data);
+            }
+            synchronized (this) {
+                if (length > 0) {
+                    writeBacks++;
+                }
+                if (frame.version == frame.writeBackVersion) {
+                    frame.dirty = false;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                frame.pinCount--;
+                frame.writingBack = false;
+                writeBacksInProgress--;
+                notifyAll();
+            }
+        }
+    }
+
+    // every unpinned frame is being written back by other threads
+    private void awaitWriteBack() throws InterruptedIOException {
+        if (writeBacksInProgress == 0) {
+            throw new IllegalStateException("Buffer pool exhausted, all pages are pinned.");
+        }
+        awaitNotify();
+    }
+
+    // pages written back by evicting threads, called with pool lock
+    private void awaitWriteBacks(PooledStorage file, long fromPageIndex) throws InterruptedIOException {
+        boolean writing = true;
+        while (writing) {
+            writing = false;
+            for (Frame frame : frames.values()) {
+                if (frame.file == file && frame.key.pageIndex >= fromPageIndex && frame.writingBack) {
+                    writing = true;
+                    awaitNotify();
+                    break;
+                }
+            }
+        }
+    }
+
+    private void awaitNotify() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for buffer pool write back.");
+        }
+    }
+
+    private Frame findVictim() {
+        if (policy == ReplacementPolicy.LRU) {
+            for (Frame frame : frames.values()) {
+                if (frame.pinCount == 0) {
+                    return frame;
+                }
+            }
+            return null;
+        }
+
+        // clock - two rounds clear all reference bits
+        for (int i = 0; i < 2 * clock.size(); i++) {
+            if (clockHand >= clock.size()) {
+                clockHand = 0;
+            }
+            Frame frame = clock.get(clockHand);
+            if (frame.pinCount == 0) {
+                if (!frame.referenced) {
+                    return frame;
+                }
+                frame.referenced = false;
+            }
+            clockHand++;
+        }
+        return null;
+    }
+
+    private void evict(Frame frame) {
+        frames.remove(frame.key);
+        removeFromClock(frame);
+        usedBytes -= frame.data.capacity();
+        evictions++;
+    }
+
+    private void removeFromClock(Frame frame) {
+        int last = clock.size() - 1;
+        Frame moved = clock.get(last);
+        clock.set(frame.ringIndex, moved);
+        moved.ringIndex = frame.ringIndex;
+        clock.remove(last);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getPageCount() {
+        return frames.size();
+    }
+
+    public ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BufferPool(policy=%s, pages=%d, used=%d/%d B, hits=%d, misses=%d, evictions=%d, writeBacks=%d)",
+                policy, frames.size(), usedBytes, capacity, hits, misses, evictions, writeBacks);
+    }
+
+    static class Frame {
+        final PageKey key;
+        final PooledStorage file;
+        final ByteBuffer data;
+        final CompletableFuture<Void> loaded; // page read, pinners of frame still being read wait for it
+        int pinCount;
+        boolean dirty;
+        long version; // dirty unpins, page written back at older version stays dirty
+        long writeBackVersion;
+        boolean writingBack;
+        boolean referenced;
+        int ringIndex;
+
+        Frame(PageKey key, PooledStorage file, ByteBuffer data, boolean loading) {
+            this.key = key;
+            this.file = file;
+            this.data = data;
+            this.loaded = loading ? new CompletableFuture<>() : CompletableFuture.completedFuture(null);
+            this.pinCount = 0;
+            this.dirty = false;
+            this.referenced = false;
+            this.ringIndex = -1;
+        }
+
+        void awaitLoaded() throws IOException {
+            try {
+                loaded.join();
+            } catch (CompletionException e) {
+                throw new IOException("Error reading page " + key.pageIndex + ".", e.getCause());
+            }
+        }
+    }
+
+    private record Pinned(Frame frame, boolean loader) {
+    }
+
+    private static class PageKey {
+        final int fileId;
+        final long pageIndex;
+
+        PageKey(int fileId, long pageIndex) {
+            this.fileId = fileId;
+            this.pageIndex = pageIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return fileId == other.fileId && pageIndex == other.pageIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileId + Long.hashCode(pageIndex);
+        }
+    }
+}
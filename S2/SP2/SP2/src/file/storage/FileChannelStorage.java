@@ -0,0 +1,72 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class FileChannelStorage implements BlockStorage {
+    private final FileChannel channel;
+
+    public FileChannelStorage(String fileName) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (position >= channel.size()) {
+            return -1;
+        }
+
+        // positional read does not move shared file pointer
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int bytesRead = channel.read(buffer, position + total);
+            if (bytesRead == -1) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            total += channel.write(buffer, position + total);
+        }
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        long size = channel.size();
+        if (newLength < size) {
+            channel.truncate(newLength);
+        } else if (newLength > size) {
+            channel.write(ByteBuffer.allocate(1), newLength - 1);
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
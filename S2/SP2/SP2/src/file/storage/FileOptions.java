@@ -0,0 +1,144 @@
+package file.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+public class FileOptions {
+    private BufferPool bufferPool;
+    private StorageMode storageMode;
+    private boolean writeAheadLog;
+    private int groupCommitSize;
+    private long groupCommitDelay;
+    private boolean chainPrefetch;
+    private boolean backgroundMaintenance;
+    private int splitBudget;
+
+    public FileOptions() {
+        this.bufferPool = null; // direct file access
+        this.storageMode = StorageMode.RANDOM_ACCESS;
+        this.writeAheadLog = false;
+        this.groupCommitSize = WriteAheadLog.DEFAULT_GROUP_COMMIT_SIZE;
+        this.groupCommitDelay = WriteAheadLog.DEFAULT_GROUP_COMMIT_DELAY;
+        this.chainPrefetch = true; // used only with async channel
+        this.backgroundMaintenance = false; // split, merge and shake inside operations
+        this.splitBudget = 0; // whole split inside operation or maintenance
+    }
+
+    public FileOptions(FileOptions options) {
+        this.bufferPool = options.bufferPool;
+        this.storageMode = options.storageMode;
+        this.writeAheadLog = options.writeAheadLog;
+        this.groupCommitSize = options.groupCommitSize;
+        this.groupCommitDelay = options.groupCommitDelay;
+        this.chainPrefetch = options.chainPrefetch;
+        this.backgroundMaintenance = options.backgroundMaintenance;
+        this.splitBudget = options.splitBudget;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public void setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    public void setWriteAheadLog(boolean writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    // commits one fsync waits for when group commit delay is set
+    public void setGroupCommitSize(int groupCommitSize) {
+        this.groupCommitSize = groupCommitSize;
+    }
+
+    public long getGroupCommitDelay() {
+        return groupCommitDelay;
+    }
+
+    // max ms the syncing commit waits for others to join its group, commit returns only after fsync,
+    // 0 = group is made of commits appended while previous fsync ran
+    public void setGroupCommitDelay(long groupCommitDelay) {
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+    // only async channel overlaps reads, elsewhere prefetch reads blocks a walk could skip
+    public boolean isChainPrefetch() {
+        return chainPrefetch && storageMode == StorageMode.ASYNC_CHANNEL;
+    }
+
+    // overflow blocks known from main block are read together, ignored for other storage modes than async channel
+    public void setChainPrefetch(boolean chainPrefetch) {
+        this.chainPrefetch = chainPrefetch;
+    }
+
+    public boolean isBackgroundMaintenance() {
+        return backgroundMaintenance;
+    }
+
+    // split, merge and shake of hash file run on its own thread instead of inside operations
+    public void setBackgroundMaintenance(boolean backgroundMaintenance) {
+        this.backgroundMaintenance = backgroundMaintenance;
+    }
+
+    public int getSplitBudget() {
+        return splitBudget;
+    }
+
+    // blocks of split bucket moved by each insert or delete, split runs over several operations
+    public void setSplitBudget(int splitBudget) {
+        this.splitBudget = splitBudget;
+    }
+
+    public BlockStorage openStorage(String fileName, int blockSize) throws FileNotFoundException {
+        BlockStorage storage;
+        switch (storageMode) {
+            case FILE_CHANNEL:
+                try {
+                    storage = new FileChannelStorage(fileName);
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Error opening file channel at " + fileName + ": " + e.getMessage());
+                }
+                break;
+            case ASYNC_CHANNEL:
+                try {
+                    storage = new AsyncFileChannelStorage(fileName);
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Error opening async channel at " + fileName + ": " + e.getMessage());
+                }
+                break;
+            case MAPPED:
+                try {
+                    // mapped pages are cached by os, buffer pool is not used
+                    return new MappedStorage(fileName, blockSize);
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Error mapping file at " + fileName + ": " + e.getMessage());
+                }
+            case RANDOM_ACCESS:
+            default:
+                storage = new RandomAccessFileStorage(fileName);
+                break;
+        }
+
+        if (bufferPool != null) {
+            return bufferPool.attach(storage, blockSize);
+        }
+        return storage;
+    }
+}
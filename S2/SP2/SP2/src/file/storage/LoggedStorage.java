@@ -0,0 +1,216 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class LoggedStorage implements BlockStorage {
+    private static final long NOT_TRUNCATED = Long.MAX_VALUE;
+
+    private final WriteAheadLog log;
+    private final BlockStorage backing;
+    private final int fileId;
+    private final int blockSize;
+    private volatile long length;
+
+    // blocks of running operation, every thread is own transaction until it commits
+    private final ThreadLocal<Transaction> active = ThreadLocal.withInitial(Transaction::new);
+
+    // committed blocks waiting for log sync, newest image of every position
+    private final HashMap<Long, Image> committed;
+    private final ArrayList<long[]> committedTruncates; // sequence, length
+    // images are written to backing by one sync at a time, older image can not overwrite newer one
+    private final Object applyLock = new Object();
+
+    private static class Transaction {
+        private final HashMap<Long, byte[]> images = new HashMap<>();
+        private long truncate = NOT_TRUNCATED;
+    }
+
+    private record Image(byte[] data, long sequence) {
+    }
+
+    LoggedStorage(WriteAheadLog log, BlockStorage backing, int fileId, int blockSize) throws IOException {
+        this.log = log;
+        this.backing = backing;
+        this.fileId = fileId;
+        this.blockSize = blockSize;
+        this.length = backing.length();
+        this.committed = new HashMap<>();
+        this.committedTruncates = new ArrayList<>();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+
+        byte[] image = findImage(position);
+        if (image != null) {
+            int count = Math.min(buffer.remaining(), image.length);
+            buffer.put(image, 0, count);
+            return count;
+        }
+        return backing.read(position, buffer);
+    }
+
+    // image is looked up on calling thread, only backing read completes later
+    @Override
+    public CompletableFuture<Integer> readAsync(long position, ByteBuffer buffer) {
+        if (position >= length) {
+            return CompletableFuture.completedFuture(-1);
+        }
+
+        byte[] image = findImage(position);
+        if (image != null) {
+            int count = Math.min(buffer.remaining(), image.length);
+            buffer.put(image, 0, count);
+            return CompletableFuture.completedFuture(count);
+        }
+        return backing.readAsync(position, buffer);
+    }
+
+    // own uncommitted writes first, blocks of other running operations are guarded by their latches
+    private byte[] findImage(long position) {
+        byte[] image = active.get().images.get(position);
+        if (image != null) {
+            return image;
+        }
+        synchronized (this) {
+            Image committedImage = committed.get(position);
+            return committedImage != null ? committedImage.data() : null;
+        }
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        if (position % blockSize != 0 || buffer.remaining() != blockSize) {
+            throw new IllegalArgumentException("Logged storage supports whole block writes only.");
+        }
+
+        byte[] image = new byte[blockSize];
+        buffer.get(image);
+        active.get().images.put(position, image);
+        synchronized (this) {
+            length = Math.max(length, position + blockSize);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    // only free blocks at end are cut, so images of other operations are not lost
+    @Override
+    public void setLength(long newLength) throws IOException {
+        Transaction transaction = active.get();
+        removeFrom(transaction.images.keySet().iterator(), newLength);
+        transaction.truncate = Math.min(transaction.truncate, newLength);
+        synchronized (this) {
+            removeFrom(committed.keySet().iterator(), newLength);
+            length = newLength;
+        }
+    }
+
+    boolean hasPending() {
+        Transaction transaction = active.get();
+        return !transaction.images.isEmpty() || transaction.truncate != NOT_TRUNCATED;
+    }
+
+    // called by log under its lock, this lock is taken only inside it
+    void appendPending() {
+        Transaction transaction = active.get();
+        if (transaction.truncate != NOT_TRUNCATED) {
+            // blocks allocated by other operations after truncate are kept
+            transaction.truncate = Math.max(transaction.truncate, length);
+            log.appendTruncate(fileId, transaction.truncate);
+        }
+        for (Map.Entry<Long, byte[]> entry : transaction.images.entrySet()) {
+            log.appendWrite(fileId, entry.getKey(), entry.getValue());
+        }
+    }
+
+    void commitPending(long sequence) {
+        Transaction transaction = active.get();
+        synchronized (this) {
+            if (transaction.truncate != NOT_TRUNCATED) {
+                committedTruncates.add(new long[] {sequence, transaction.truncate});
+            }
+            for (Map.Entry<Long, byte[]> entry : transaction.images.entrySet()) {
+                committed.put(entry.getKey(), new Image(entry.getValue(), sequence));
+            }
+        }
+        transaction.images.clear();
+        transaction.truncate = NOT_TRUNCATED;
+    }
+
+    // truncates of synced commits go first, every image that survived them was written after them
+    void applyCommitted(long syncedSequence) throws IOException {
+        synchronized (applyLock) {
+            long truncate = NOT_TRUNCATED;
+            ArrayList<Map.Entry<Long, Image>> ready = new ArrayList<>();
+            synchronized (this) {
+                Iterator<long[]> it = committedTruncates.iterator();
+                while (it.hasNext()) {
+                    long[] committedTruncate = it.next();
+                    if (committedTruncate[0] <= syncedSequence) {
+                        truncate = Math.min(truncate, committedTruncate[1]);
+                        it.remove();
+                    }
+                }
+                for (Map.Entry<Long, Image> entry : committed.entrySet()) {
+                    if (entry.getValue().sequence() <= syncedSequence) {
+                        ready.add(Map.entry(entry.getKey(), entry.getValue()));
+                    }
+                }
+            }
+
+            if (truncate != NOT_TRUNCATED && truncate < backing.length()) {
+                backing.setLength(truncate);
+            }
+            for (Map.Entry<Long, Image> entry : ready) {
+                backing.write(entry.getKey(), ByteBuffer.wrap(entry.getValue().data()));
+            }
+
+            synchronized (this) {
+                for (Map.Entry<Long, Image> entry : ready) {
+                    committed.remove(entry.getKey(), entry.getValue()); // newer commit keeps its image
+                }
+            }
+        }
+    }
+
+    private void removeFrom(Iterator<Long> positions, long newLength) {
+        while (positions.hasNext()) {
+            if (positions.next() >= newLength) {
+                positions.remove();
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int size) {
+        return backing.allocate(size);
+    }
+
+    // flushes only blocks already applied, log.sync() applies the rest first
+    @Override
+    public void flush() throws IOException {
+        backing.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        backing.close();
+    }
+
+    public BlockStorage getBacking() {
+        return backing;
+    }
+}
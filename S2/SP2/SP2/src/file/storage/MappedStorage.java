@@ -0,0 +1,176 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class MappedStorage implements BlockStorage {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024; // 64 MB
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024; // 1 MB
+
+    private final FileChannel channel;
+    private final long segmentSize; // multiple of block size, block never crosses segments
+    private final long chunkSize; // segments grow by whole chunks, multiple of block size
+    private volatile MappedByteBuffer[] segments; // replaced on change so reads need no lock
+    private volatile long length; // logical length, file can be longer by the last chunk until close
+    private boolean truncatePending; // file could not be cut while old mapping was alive, done on close
+
+    public MappedStorage(String fileName, int blockSize) throws IOException {
+        this(fileName, blockSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedStorage(String fileName, int blockSize, int segmentSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segmentSize = (long) Math.max(1, segmentSize / blockSize) * blockSize;
+        this.chunkSize = Math.min(this.segmentSize, (long) Math.max(1, DEFAULT_CHUNK_SIZE / blockSize) * blockSize);
+        this.segments = new MappedByteBuffer[0];
+        this.length = channel.size();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+
+        int total = 0;
+        while (buffer.hasRemaining() && position < length) {
+            int offset = (int) (position % segmentSize);
+            int count = (int) Math.min(Math.min(buffer.remaining(), segmentSize - offset), length - position);
+
+            ByteBuffer segment = segment((int) (position / segmentSize), offset + count).duplicate();
+            segment.position(offset).limit(offset + count);
+            buffer.put(segment);
+
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int offset = (int) (position % segmentSize);
+            int count = (int) Math.min(buffer.remaining(), segmentSize - offset);
+
+            ByteBuffer segment = segment((int) (position / segmentSize), offset + count).duplicate();
+            segment.position(offset);
+            ByteBuffer src = buffer.duplicate();
+            src.limit(src.position() + count);
+            segment.put(src);
+            buffer.position(buffer.position() + count);
+
+            position += count;
+            extendTo(position);
+        }
+    }
+
+    private synchronized void extendTo(long end) {
+        if (end > length) {
+            length = end;
+        }
+    }
+
+    // already mapped segments are taken from the snapshot without locking
+    private MappedByteBuffer segment(int index, long end) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null && current[index].capacity() >= end) {
+            return current[index];
+        }
+        return mapSegment(index, end);
+    }
+
+    // segment is mapped up to whole chunk covering end, mapping extends file
+    private synchronized MappedByteBuffer mapSegment(int index, long end) throws IOException {
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer segment = index < current.length ? current[index] : null;
+        if (segment != null && segment.capacity() >= end) {
+            return segment;
+        }
+
+        long size = Math.min(segmentSize, Math.max(end, chunkEnd(index, length)));
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, index * segmentSize, size);
+        MappedByteBuffer[] next = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        next[index] = segment;
+        segments = next;
+        return segment;
+    }
+
+    // bytes of segment needed to hold file of given length, rounded up to whole chunks
+    private long chunkEnd(int index, long fileLength) {
+        long inSegment = Math.min(segmentSize, Math.max(0, fileLength - index * segmentSize));
+        return Math.min(segmentSize, (inSegment + chunkSize - 1) / chunkSize * chunkSize);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    // segments past the end are released and a larger last one is mapped again, old mappings are unmapped by gc
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        int neededSegments = (int) ((newLength + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] next = Arrays.copyOf(segments, Math.min(segments.length, neededSegments));
+        long mappedEnd = 0;
+        if (neededSegments > 0) {
+            long lastEnd = chunkEnd(neededSegments - 1, newLength);
+            if (next.length == neededSegments && next[neededSegments - 1] != null
+                    && next[neededSegments - 1].capacity() > lastEnd) {
+                next[neededSegments - 1] = null;
+            }
+            mappedEnd = (neededSegments - 1) * segmentSize + lastEnd;
+        }
+        segments = next;
+        length = newLength;
+
+        try {
+            channel.truncate(mappedEnd);
+            truncatePending = false;
+        } catch (IOException e) {
+            truncatePending = true; // some systems refuse while region is mapped
+        }
+    }
+
+    public int getMappedSegmentCount() {
+        int count = 0;
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+            segments = new MappedByteBuffer[0];
+            if (truncatePending || channel.size() > length) {
+                try {
+                    channel.truncate(length);
+                } catch (IOException e) {
+                    throw new IOException("Error truncating mapped file to " + length + ".", e);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
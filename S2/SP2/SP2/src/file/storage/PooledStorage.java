@@ -0,0 +1,192 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+public class PooledStorage implements BlockStorage {
+    private final BufferPool pool;
+    private final BlockStorage backing;
+    private final int fileId;
+    private final int pageSize;
+    private volatile long length;
+    private final boolean direct;
+
+    PooledStorage(BufferPool pool, BlockStorage backing, int fileId, int pageSize) throws IOException {
+        this.pool = pool;
+        this.backing = backing;
+        this.fileId = fileId;
+        this.pageSize = pageSize;
+        this.length = backing.length();
+        this.direct = backing.allocate(0).isDirect();
+    }
+
+    // page stays in memory until unpinned
+    public Page pin(long pageIndex) throws IOException {
+        return new Page(pageIndex, pool.pin(this, pageIndex, pageIndex * pageSize < length));
+    }
+
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+
+        int total = 0;
+        while (buffer.hasRemaining() && position < length) {
+            long pageIndex = position / pageSize;
+            int offset = (int) (position % pageSize);
+            int count = (int) Math.min(Math.min(buffer.remaining(), pageSize - offset), length - position);
+
+            BufferPool.Frame frame = pool.pin(this, pageIndex, true);
+            try {
+                ByteBuffer data = frame.data.duplicate();
+                data.clear();
+                data.position(offset).limit(offset + count);
+                buffer.put(data);
+            } finally {
+                pool.unpin(frame, false);
+            }
+
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    // page in pool completes at once, missing page is read by backing readAsync and kept in pool,
+    // read over several pages completes in calling thread
+    @Override
+    public CompletableFuture<Integer> readAsync(long position, ByteBuffer buffer) {
+        if (position >= length) {
+            return CompletableFuture.completedFuture(-1);
+        }
+
+        long pageIndex = position / pageSize;
+        int offset = (int) (position % pageSize);
+        int count = (int) Math.min(Math.min(buffer.remaining(), pageSize - offset), length - position);
+        if (count < buffer.remaining() && position + count < length) {
+            return BlockStorage.super.readAsync(position, buffer);
+        }
+
+        return pool.pinAsync(this, pageIndex).thenApply(frame -> {
+            try {
+                ByteBuffer data = frame.data.duplicate();
+                data.clear();
+                data.position(offset).limit(offset + count);
+                buffer.put(data);
+            } finally {
+                pool.unpin(frame, false);
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public void write(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            long pageIndex = position / pageSize;
+            int offset = (int) (position % pageSize);
+            int count = Math.min(buffer.remaining(), pageSize - offset);
+
+            // whole page overwrite does not need old content
+            boolean load = (offset != 0 || count < pageSize) && position < length;
+            BufferPool.Frame frame = pool.pin(this, pageIndex, load);
+            try {
+                ByteBuffer data = frame.data.duplicate();
+                data.clear();
+                data.position(offset);
+                ByteBuffer src = buffer.duplicate();
+                src.limit(src.position() + count);
+                data.put(src);
+                buffer.position(buffer.position() + count);
+            } finally {
+                pool.unpin(frame, true);
+            }
+
+            position += count;
+            extendTo(position);
+        }
+    }
+
+    // writers of different blocks can grow file at once
+    private synchronized void extendTo(long end) {
+        if (end > length) {
+            length = end;
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        pool.discard(this, (newLength + pageSize - 1) / pageSize);
+        backing.setLength(newLength);
+        length = newLength;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        pool.flush(this);
+        backing.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.flush(this);
+        pool.discard(this, 0);
+        backing.close();
+    }
+
+    int getFileId() {
+        return fileId;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    BlockStorage getBacking() {
+        return backing;
+    }
+
+    public class Page {
+        private final long pageIndex;
+        private final BufferPool.Frame frame;
+        private boolean pinned;
+
+        private Page(long pageIndex, BufferPool.Frame frame) {
+            this.pageIndex = pageIndex;
+            this.frame = frame;
+            this.pinned = true;
+        }
+
+        public ByteBuffer getBuffer() {
+            ByteBuffer view = frame.data.duplicate();
+            view.clear();
+            return view;
+        }
+
+        public long getPageIndex() {
+            return pageIndex;
+        }
+
+        public void unpin(boolean dirty) {
+            if (!pinned) {
+                return;
+            }
+            pinned = false;
+            pool.unpin(frame, dirty);
+            if (dirty) {
+                extendTo((pageIndex + 1) * pageSize);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package file.storage;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class RandomAccessFileStorage implements BlockStorage {
+    // seek and write must not interleave between threads
+    private final RandomAccessFile file;
+
+    public RandomAccessFileStorage(String fileName) throws FileNotFoundException {
+        this.file = new RandomAccessFile(fileName, "rw");
+    }
+
+    // positional read through file channel, does not move file pointer used by write
+    @Override
+    public int read(long position, ByteBuffer buffer) throws IOException {
+        if (position >= file.length()) {
+            return -1;
+        }
+
+        FileChannel channel = file.getChannel();
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int bytesRead = channel.read(buffer, position + total);
+            if (bytesRead == -1) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void write(long position, ByteBuffer buffer) throws IOException {
+        file.seek(position);
+        int length = buffer.remaining();
+        if (buffer.hasArray()) {
+            file.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            file.write(bytes);
+        }
+    }
+
+    @Override
+    public synchronized long length() throws IOException {
+        return file.length();
+    }
+
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        file.setLength(newLength);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        file.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+}
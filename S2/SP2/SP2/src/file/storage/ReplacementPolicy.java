@@ -0,0 +1,6 @@
+package file.storage;
+
+public enum ReplacementPolicy {
+    CLOCK,
+    LRU
+}
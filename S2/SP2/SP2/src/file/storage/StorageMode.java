@@ -0,0 +1,8 @@
+package file.storage;
+
+public enum StorageMode {
+    RANDOM_ACCESS, // seek + read/write
+    FILE_CHANNEL,  // positional read/write, direct buffers
+    MAPPED,        // memory mapped segments
+    ASYNC_CHANNEL  // asynchronous file channel, reads complete without blocking caller
+}
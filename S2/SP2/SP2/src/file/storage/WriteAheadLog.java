@@ -0,0 +1,328 @@
+package file.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog {
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 64;
+    public static final long DEFAULT_GROUP_COMMIT_DELAY = 0; // ms, commits arriving during fsync form next group
+    public static final long DEFAULT_CHECKPOINT_SIZE = 16L * 1024 * 1024;
+
+    private static final byte WRITE = 1;
+    private static final byte TRUNCATE = 2;
+    private static final byte COMMIT = 3;
+
+    private final FileChannel channel;
+    private final int groupCommitSize;
+    private final long groupCommitDelay;
+    private final long checkpointSize;
+    private final ArrayList<LoggedStorage> storages;
+    private final CRC32 crc;
+
+    private ByteBuffer buffer; // records not yet written to channel
+    private long size;
+    private long commitCount;
+    private long syncedCommitCount;
+    private boolean syncing; // leader is forcing log, others wait for its result
+
+    private long syncs;
+
+    public WriteAheadLog(String fileName, int groupCommitSize, long groupCommitDelay, long checkpointSize) throws IOException {
+        this.channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.groupCommitSize = Math.max(1, groupCommitSize);
+        this.groupCommitDelay = groupCommitDelay;
+        this.checkpointSize = checkpointSize;
+        this.storages = new ArrayList<>();
+        this.crc = new CRC32();
+        this.buffer = ByteBuffer.allocate(64 * 1024);
+        this.size = channel.size();
+        this.commitCount = 0;
+        this.syncedCommitCount = 0;
+        this.syncing = false;
+    }
+
+    public WriteAheadLog(String fileName) throws IOException {
+        this(fileName, DEFAULT_GROUP_COMMIT_SIZE, DEFAULT_GROUP_COMMIT_DELAY, DEFAULT_CHECKPOINT_SIZE);
+    }
+
+    public synchronized LoggedStorage attach(BlockStorage storage, int fileId, int blockSize) throws IOException {
+        LoggedStorage logged = new LoggedStorage(this, storage, fileId, blockSize);
+        storages.add(logged);
+        return logged;
+    }
+
+    synchronized void appendWrite(int fileId, long position, byte[] data) {
+        ensureCapacity(1 + Integer.BYTES + Long.BYTES + Integer.BYTES + data.length + Integer.BYTES);
+        int start = buffer.position();
+        buffer.put(WRITE);
+        buffer.putInt(fileId);
+        buffer.putLong(position);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        putChecksum(start);
+    }
+
+    synchronized void appendTruncate(int fileId, long newLength) {
+        ensureCapacity(1 + Integer.BYTES + Long.BYTES + Integer.BYTES);
+        int start = buffer.position();
+        buffer.put(TRUNCATE);
+        buffer.putInt(fileId);
+        buffer.putLong(newLength);
+        putChecksum(start);
+    }
+
+    // writes of calling thread and commit record are appended together, so operations of other threads do not
+    // interleave with them, returns sequence number for awaitSync, 0 when thread had nothing to commit
+    public synchronized long commit(byte[] metadata) throws IOException {
+        boolean pending = false;
+        for (LoggedStorage storage : storages) {
+            pending |= storage.hasPending();
+        }
+        if (!pending) {
+            return 0;
+        }
+
+        for (LoggedStorage storage : storages) {
+            storage.appendPending();
+        }
+
+        ensureCapacity(1 + Long.BYTES + Integer.BYTES + metadata.length + Integer.BYTES);
+        int start = buffer.position();
+        buffer.put(COMMIT);
+        buffer.putLong(commitCount + 1);
+        buffer.putInt(metadata.length);
+        buffer.put(metadata);
+        putChecksum(start);
+        commitCount++;
+
+        for (LoggedStorage storage : storages) {
+            storage.commitPending(commitCount);
+        }
+
+        if (syncing || commitCount - syncedCommitCount >= groupCommitSize) {
+            notifyAll(); // leader waiting for its group
+        }
+        return commitCount;
+    }
+
+    // returns when commit is durable, first waiting thread forces log for every commit appended so far
+    // and the others wait for it, commits appended during fsync are synced by next leader
+    public void awaitSync(long sequence) throws IOException {
+        long target;
+        synchronized (this) {
+            while (true) {
+                if (syncedCommitCount >= sequence) {
+                    return;
+                }
+                if (!syncing) {
+                    break;
+                }
+                waitUninterruptibly(0);
+            }
+
+            syncing = true;
+            long deadline = System.currentTimeMillis() + groupCommitDelay;
+            long remaining = groupCommitDelay;
+            while (commitCount - syncedCommitCount < groupCommitSize && remaining > 0) {
+                waitUninterruptibly(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            try {
+                writeBuffer();
+            } catch (IOException e) {
+                syncing = false;
+                notifyAll();
+                throw e;
+            }
+            target = commitCount;
+        }
+
+        // others keep appending while log is forced
+        boolean forced = false;
+        try {
+            channel.force(false);
+            forced = true;
+        } finally {
+            synchronized (this) {
+                if (forced) {
+                    syncedCommitCount = target;
+                    syncs++;
+                }
+                syncing = false;
+                notifyAll();
+            }
+        }
+
+        for (LoggedStorage storage : storages) {
+            storage.applyCommitted(target);
+        }
+    }
+
+    // every commit appended so far
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = commitCount;
+        }
+        awaitSync(target);
+        for (LoggedStorage storage : storages) {
+            storage.applyCommitted(target);
+        }
+    }
+
+    private void waitUninterruptibly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for log sync.", e);
+        }
+    }
+
+    public synchronized boolean needsCheckpoint() throws IOException {
+        return size >= checkpointSize;
+    }
+
+    // data files must be flushed before log is cleared, no commit may run meanwhile
+    public void reset() throws IOException {
+        sync();
+        synchronized (this) {
+            channel.truncate(0);
+            channel.force(true);
+            size = 0;
+        }
+    }
+
+    // replays committed operations, returns metadata of last commit or null if log is empty
+    public synchronized byte[] recover(BlockStorage[] targets) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return null;
+        }
+
+        ByteBuffer log = ByteBuffer.allocate((int) size);
+        while (log.hasRemaining()) {
+            if (channel.read(log, log.position()) == -1) {
+                break;
+            }
+        }
+        log.flip();
+
+        byte[] metadata = null;
+        int committedEnd = 0;
+        int position = 0;
+
+        // records of operation are applied only when its commit is found
+        while (position < log.limit()) {
+            int start = position;
+            byte type;
+            try {
+                type = log.get(position++);
+                if (type == WRITE) {
+                    position += Integer.BYTES + Long.BYTES;
+                    position += Integer.BYTES + log.getInt(position);
+                } else if (type == TRUNCATE) {
+                    position += Integer.BYTES + Long.BYTES;
+                } else if (type == COMMIT) {
+                    position += Long.BYTES;
+                    position += Integer.BYTES + log.getInt(position);
+                } else {
+                    break;
+                }
+                if (position + Integer.BYTES > log.limit() || !checksumMatches(log, start, position)) {
+                    break; // torn tail
+                }
+                position += Integer.BYTES;
+            } catch (IndexOutOfBoundsException e) {
+                break;
+            }
+
+            if (type == COMMIT) {
+                applyRecords(log, committedEnd, start, targets);
+                int metadataLength = log.getInt(start + 1 + Long.BYTES);
+                metadata = new byte[metadataLength];
+                log.get(start + 1 + Long.BYTES + Integer.BYTES, metadata);
+                committedEnd = position;
+            }
+        }
+
+        return metadata;
+    }
+
+    private void applyRecords(ByteBuffer log, int from, int to, BlockStorage[] targets) throws IOException {
+        int position = from;
+        while (position < to) {
+            byte type = log.get(position);
+            int fileId = log.getInt(position + 1);
+            long target = log.getLong(position + 1 + Integer.BYTES);
+            position += 1 + Integer.BYTES + Long.BYTES;
+
+            if (type == WRITE) {
+                int length = log.getInt(position);
+                position += Integer.BYTES;
+                ByteBuffer data = log.duplicate();
+                data.position(position).limit(position + length);
+                targets[fileId].write(target, data);
+                position += length;
+            } else if (type == TRUNCATE) {
+                targets[fileId].setLength(target);
+            }
+            position += Integer.BYTES; // checksum
+        }
+    }
+
+    private void putChecksum(int start) {
+        crc.reset();
+        ByteBuffer record = buffer.duplicate();
+        record.position(start).limit(buffer.position());
+        crc.update(record);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private boolean checksumMatches(ByteBuffer log, int start, int end) {
+        crc.reset();
+        ByteBuffer record = log.duplicate();
+        record.position(start).limit(end);
+        crc.update(record);
+        return log.getInt(end) == (int) crc.getValue();
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+        buffer.clear();
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    public void close() throws IOException {
+        sync();
+        synchronized (this) {
+            channel.close();
+        }
+    }
+}
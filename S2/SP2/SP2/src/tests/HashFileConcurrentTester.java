@@ -0,0 +1,240 @@
+package tests;
+
+import file.hashfile.HashFile;
+import file.storage.FileOptions;
+import file.storage.StorageMode;
+import whoApp.data.PcrTest;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// every thread works with its own test ids, so each thread can check its own results
+public class HashFileConcurrentTester {
+
+    private final AtomicInteger totalInsertTests = new AtomicInteger();
+    private final AtomicInteger failedInsertTests = new AtomicInteger();
+    private final AtomicInteger totalDeleteTests = new AtomicInteger();
+    private final AtomicInteger failedDeleteTests = new AtomicInteger();
+    private final AtomicInteger totalFindTests = new AtomicInteger();
+    private final AtomicInteger failedFindTests = new AtomicInteger();
+    private final AtomicInteger totalEditTests = new AtomicInteger();
+    private final AtomicInteger failedEditTests = new AtomicInteger();
+
+    public void testMethods(int threadCount) {
+        String fileName = "test_concurrent_pcrtests";
+        int repsNum = 50;
+        int methodCallsNum = 200;
+        int idsPerThread = 1_000_000;
+
+        deleteTestFiles(fileName);
+
+        HashFile<PcrTest> hashFile;
+        try {
+            FileOptions options = new FileOptions();
+            options.setStorageMode(StorageMode.FILE_CHANNEL);
+            options.setBackgroundMaintenance(true);
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+        } catch (IOException e) {
+            System.out.println("Error creating hash file");
+            return;
+        }
+
+        ArrayList<LinkedList<PcrTest>> lists = new ArrayList<>();
+        int[] idCounters = new int[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            lists.add(new LinkedList<>());
+            idCounters[t] = t * idsPerThread;
+        }
+
+        int numEquals = 0;
+        int numNotEquals = 0;
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < repsNum; i++) {
+            System.out.println("Repetition " + (i + 1) + "/" + repsNum);
+
+            ArrayList<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int threadIndex = t;
+                final int seed = i * threadCount + t;
+                Thread thread = new Thread(() -> {
+                    Random r = new Random(seed);
+                    LinkedList<PcrTest> linkedList = lists.get(threadIndex);
+                    for (int j = 0; j < methodCallsNum; j++) {
+                        int methodProb = r.nextInt(100);
+
+                        if (methodProb < 40) {
+                            // INSERT
+                            int id = idCounters[threadIndex]++;
+                            PcrTest test = createTest(id, r, "N" + id);
+                            hashFile.insert(test);
+                            linkedList.add(test);
+                            totalInsertTests.incrementAndGet();
+                            if (hashFile.get(test) == null) {
+                                System.out.println("ERROR: Test not found after insertion: " + test);
+                                failedInsertTests.incrementAndGet();
+                            }
+                        } else if (methodProb < 65) {
+                            // DELETE
+                            if (!linkedList.isEmpty()) {
+                                int removeIndex = r.nextInt(linkedList.size());
+                                PcrTest testToRemove = linkedList.get(removeIndex);
+                                totalDeleteTests.incrementAndGet();
+                                if (hashFile.delete(testToRemove)) {
+                                    linkedList.remove(removeIndex);
+                                    testFindOperation(hashFile, testToRemove, false);
+                                } else {
+                                    System.out.println("WARNING: Failed to remove test from hash file: " + testToRemove);
+                                    failedDeleteTests.incrementAndGet();
+                                }
+                            }
+                        } else if (methodProb < 75) {
+                            // EDIT
+                            if (!linkedList.isEmpty()) {
+                                int editIndex = r.nextInt(linkedList.size());
+                                PcrTest old = linkedList.get(editIndex);
+                                PcrTest edited = createTest(old.getTestId(), r, "E" + old.getTestId());
+                                totalEditTests.incrementAndGet();
+                                if (hashFile.edit(edited)) {
+                                    linkedList.set(editIndex, edited);
+                                    PcrTest found = hashFile.get(edited);
+                                    if (found == null || !found.getNote().equals(edited.getNote())) {
+                                        System.out.println("ERROR: Edited test not found: " + edited);
+                                        failedEditTests.incrementAndGet();
+                                    }
+                                } else {
+                                    System.out.println("ERROR: Failed to edit test: " + old);
+                                    failedEditTests.incrementAndGet();
+                                }
+                            }
+                        } else {
+                            // FIND
+                            if (!linkedList.isEmpty()) {
+                                testFindOperation(hashFile, linkedList.get(r.nextInt(linkedList.size())), true);
+                            }
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                hashFile.awaitMaintenance(); // failed split, merge or shake is thrown here
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            boolean equals = verifyAllRecords(hashFile, lists);
+            if (equals) {
+                numEquals++;
+                System.out.println("✓ Verification " + (i + 1) + " PASSED");
+            } else {
+                numNotEquals++;
+                System.out.println("✗ Verification " + (i + 1) + " FAILED");
+            }
+        }
+
+        System.out.println("\n=== FINAL VERIFICATION ===");
+        if (verifyAllRecords(hashFile, lists)) {
+            System.out.println("✓ Final verification PASSED");
+        } else {
+            System.out.println("✗ Final verification FAILED");
+        }
+
+        printTestStatistics();
+        hashFile.printStatistics();
+        hashFile.close();
+
+        System.out.println("Threads: " + threadCount + ", time: " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("\nSummary: " + numEquals + "/" + (numEquals + numNotEquals) + " passed");
+
+        deleteTestFiles(fileName);
+    }
+
+    private PcrTest createTest(int id, Random r, String note) {
+        return new PcrTest(
+                id,
+                "PAT" + id,
+                LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(id),
+                r.nextBoolean(),
+                r.nextDouble() * 100,
+                note
+        );
+    }
+
+    private void testFindOperation(HashFile<PcrTest> hashFile, PcrTest test, boolean shouldExist) {
+        PcrTest found = hashFile.get(test);
+        boolean actuallyExists = (found != null && found.isEqualTo(test));
+
+        if (shouldExist && !actuallyExists) {
+            System.out.println("ERROR: Test should exist but wasn't found: " + test);
+            failedFindTests.incrementAndGet();
+        } else if (!shouldExist && actuallyExists) {
+            System.out.println("ERROR: Test should not exist but was found: " + test);
+            failedFindTests.incrementAndGet();
+        }
+        totalFindTests.incrementAndGet();
+    }
+
+    private boolean verifyAllRecords(HashFile<PcrTest> hashFile, ArrayList<LinkedList<PcrTest>> lists) {
+        int verified = 0;
+        int failed = 0;
+        int expected = 0;
+
+        for (LinkedList<PcrTest> linkedList : lists) {
+            expected += linkedList.size();
+            for (PcrTest test : linkedList) {
+                PcrTest foundTest = hashFile.get(test);
+                if (foundTest == null || !foundTest.getNote().equals(test.getNote())) {
+                    System.out.println("ERROR: Test not found: " + test);
+                    failed++;
+                } else {
+                    verified++;
+                }
+            }
+        }
+
+        if (hashFile.getRecordCount() != expected) {
+            System.out.println("ERROR: Record count " + hashFile.getRecordCount() + " != " + expected);
+            failed++;
+        }
+
+        System.out.println("Verification result: " + verified + " verified, " + failed + " failed");
+        return failed == 0;
+    }
+
+    private void deleteTestFiles(String baseName) {
+        String[] extensions = {".dat.dat", ".dat_heap.dat", "_hash.dat", "_overflow.dat", "_overflow_heap.dat"};
+        for (String ext : extensions) {
+            java.io.File file = new java.io.File(baseName + ext);
+            if (file.exists() && !file.delete()) {
+                System.out.println("Failed to delete old test file: " + file.getName());
+            }
+        }
+    }
+
+    private void printTestStatistics() {
+        System.out.println("\n=== DETAILED TEST STATISTICS ===");
+        System.out.println("Insert Operations: Total: " + totalInsertTests + ", Failed: " + failedInsertTests);
+        System.out.println("Delete Operations: Total: " + totalDeleteTests + ", Failed: " + failedDeleteTests);
+        System.out.println("Edit Operations: Total: " + totalEditTests + ", Failed: " + failedEditTests);
+        System.out.println("Find Operations: Total: " + totalFindTests + ", Failed: " + failedFindTests);
+        System.out.println("=== END TEST STATISTICS ===");
+    }
+
+    public static void main(String[] args) {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        HashFileConcurrentTester tester = new HashFileConcurrentTester();
+        System.out.println("=== STARTING CONCURRENT HASH FILE TEST WITH " + threadCount + " THREADS ===");
+        tester.testMethods(threadCount);
+    }
+}
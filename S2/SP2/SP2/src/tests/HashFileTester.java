@@ -1,10 +1,20 @@
 package tests;
 
 import file.hashfile.HashFile;
+import file.hashfile.HashFileLoader;
+import file.storage.FileOptions;
+import file.storage.StorageMode;
 import whoApp.data.PcrTest;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Random;
 
@@ -165,6 +175,569 @@ public class HashFileTester {
         deleteTestFiles(fileName);
     }
 
+    // records of other buckets are deleted until last bucket pair merges while both buckets are full,
+    // their records do not fit into lower main block and both chains
+    public boolean testMergeOfFullBuckets() {
+        String fileName = "test_merge_pcrtests";
+        int recordsNum = 3000;
+        int mergesNum = 5;
+        deleteTestFiles(fileName);
+
+        FileOptions options = new FileOptions();
+        options.setBackgroundMaintenance(false); // merge runs inside delete
+        HashFile<PcrTest> hashFile;
+        try {
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+        } catch (IOException e) {
+            System.out.println("Error creating hash file");
+            return false;
+        }
+
+        HashSet<Integer> ids = new HashSet<>();
+        for (int id = 0; id < recordsNum; id++) {
+            hashFile.insert(createTest(id));
+            ids.add(id);
+        }
+        int fullBucketSize = (1024 - 4 * Integer.BYTES) / new PcrTest().getSize(); // records of main block
+
+        boolean passed = true;
+        int merges = 0;
+        int nextId = recordsNum;
+        while (merges < mergesNum && passed && nextId < 100 * recordsNum) {
+            int higherIndex = hashFile.getBlockCount() - 1;
+            int lowerIndex = hashFile.getSplitPointer() > 0 ? hashFile.getSplitPointer() - 1 : hashFile.getHashEdge() / 2 - 1;
+            int lowerCount = hashFile.getBucketRecordCount(lowerIndex);
+            int higherCount = hashFile.getBucketRecordCount(higherIndex);
+
+            // bucket pair is filled first, insert can split and change the pair
+            if (lowerCount <= fullBucketSize || higherCount <= fullBucketSize) {
+                int target = lowerCount <= fullBucketSize ? lowerIndex : higherIndex;
+                while (bucketOf(hashFile, nextId) != target) {
+                    nextId++;
+                }
+                hashFile.insert(createTest(nextId));
+                ids.add(nextId++);
+                continue;
+            }
+
+            long mergeCount = hashFile.getMergeCount();
+            for (Integer id : new LinkedList<>(ids)) {
+                int index = bucketOf(hashFile, id);
+                if (index == lowerIndex || index == higherIndex) {
+                    continue;
+                }
+                hashFile.delete(new PcrTest(id));
+                ids.remove(id);
+                if (hashFile.getMergeCount() > mergeCount) {
+                    break;
+                }
+            }
+            if (hashFile.getMergeCount() == mergeCount) {
+                break;
+            }
+            merges++;
+
+            if (hashFile.getBucketRecordCount(lowerIndex) != lowerCount + higherCount) {
+                System.out.println("ERROR: Merged bucket " + lowerIndex + " has " + hashFile.getBucketRecordCount(lowerIndex)
+                        + " records, expected " + (lowerCount + higherCount));
+                passed = false;
+            }
+            for (int id : ids) {
+                PcrTest found = hashFile.get(new PcrTest(id));
+                if (found == null) {
+                    System.out.println("ERROR: Test " + id + " lost by merge of buckets " + lowerIndex + " and " + higherIndex);
+                    passed = false;
+                }
+            }
+        }
+
+        if (merges < mergesNum) {
+            System.out.println("ERROR: Only " + merges + " merges of full buckets done");
+            passed = false;
+        }
+
+        hashFile.close();
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // file grows and shrinks through mapped segments, after reopen it is read by mapped and by positional storage
+    public boolean testMappedReopen() {
+        String fileName = "test_mapped_pcrtests";
+        int recordsNum = 3000;
+        deleteTestFiles(fileName);
+
+        FileOptions mapped = new FileOptions();
+        mapped.setStorageMode(StorageMode.MAPPED);
+        FileOptions channel = new FileOptions();
+        channel.setStorageMode(StorageMode.FILE_CHANNEL);
+
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed;
+        try {
+            HashFile<PcrTest> hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, mapped);
+            for (int id = 0; id < recordsNum; id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            for (int id = 0; id < recordsNum; id += 3) {
+                hashFile.delete(new PcrTest(id)); // merges shrink both files
+                expected.remove(id);
+            }
+            for (int id = 1; id < recordsNum; id += 3) {
+                hashFile.edit(createTest(id, "E" + id));
+                expected.put(id, "E" + id);
+            }
+            passed = verifyRecords(hashFile, expected, "mapped");
+            hashFile.close();
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, mapped);
+            passed &= verifyRecords(hashFile, expected, "mapped reopen");
+            for (int id = recordsNum; id < 2 * recordsNum; id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            hashFile.close();
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, channel);
+            passed &= verifyRecords(hashFile, expected, "file channel reopen");
+            hashFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // batches of different sizes give same records as inserting them one by one, also after deletes and reopen
+    public boolean testInsertAllEquivalence() {
+        String batchName = "test_batch_pcrtests";
+        String singleName = "test_single_pcrtests";
+        int[] batchSizes = {1, 10, 500, 2000, 37};
+        deleteTestFiles(batchName);
+        deleteTestFiles(singleName);
+
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed = true;
+        try {
+            HashFile<PcrTest> batchFile = new HashFile<>(batchName, 1024, 512, PcrTest.class);
+            HashFile<PcrTest> singleFile = new HashFile<>(singleName, 1024, 512, PcrTest.class);
+
+            int nextId = 0;
+            for (int batchIndex = 0; batchIndex < batchSizes.length; batchIndex++) {
+                ArrayList<PcrTest> batch = new ArrayList<>();
+                for (int i = 0; i < batchSizes[batchIndex]; i++) {
+                    int id = nextId++;
+                    batch.add(createTest(id));
+                    singleFile.insert(createTest(id));
+                    expected.put(id, "T" + id);
+                }
+                int inserted = batchFile.insertAll(batch);
+                if (inserted != batch.size()) {
+                    System.out.println("ERROR: insertAll returned " + inserted + " for batch of " + batch.size());
+                    passed = false;
+                }
+
+                // deletes after fourth batch leave free space in chains for last batch
+                if (batchIndex == 3) {
+                    for (int id = 0; id < nextId; id += 4) {
+                        batchFile.delete(new PcrTest(id));
+                        singleFile.delete(new PcrTest(id));
+                        expected.remove(id);
+                    }
+                }
+            }
+
+            passed &= verifyRecords(batchFile, expected, "insertAll");
+            passed &= verifyRecords(singleFile, expected, "insert");
+            passed &= verifyBucketCounts(batchFile, expected.size(), "insertAll");
+            batchFile.close();
+            singleFile.close();
+
+            batchFile = new HashFile<>(batchName, 1024, 512, PcrTest.class);
+            passed &= verifyRecords(batchFile, expected, "insertAll reopen");
+            passed &= verifyBucketCounts(batchFile, expected.size(), "insertAll reopen");
+            batchFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(batchName);
+        deleteTestFiles(singleName);
+        return passed;
+    }
+
+    // loaded file holds same records as file built by inserts, stale free space map and log of old file are dropped
+    public boolean testLoaderEquivalence() {
+        String fileName = "test_load_pcrtests";
+        String insertedName = "test_loadref_pcrtests";
+        int recordsNum = 5000;
+        deleteTestFiles(fileName);
+        deleteTestFiles(insertedName);
+
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed = true;
+        try {
+            // old file, closed with empty blocks in its map, then reopened with log and left without close
+            HashFile<PcrTest> oldFile = new HashFile<>(fileName, 1024, 512, PcrTest.class);
+            for (int id = 0; id < recordsNum; id++) {
+                oldFile.insert(createTest(id, "OLD"));
+            }
+            for (int id = 0; id < recordsNum; id += 2) {
+                oldFile.delete(new PcrTest(id));
+            }
+            oldFile.close();
+            FileOptions logged = new FileOptions();
+            logged.setWriteAheadLog(true);
+            oldFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, logged);
+            for (int id = -1; id >= -50; id--) {
+                oldFile.insert(createTest(id, "OLD"));
+            }
+
+            ArrayList<PcrTest> records = new ArrayList<>();
+            HashFile<PcrTest> insertedFile = new HashFile<>(insertedName, 1024, 512, PcrTest.class);
+            for (int id = 0; id < recordsNum; id++) {
+                records.add(createTest(id));
+                insertedFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+
+            // small budget, input is split into several partitions
+            HashFileLoader<PcrTest> loader = new HashFileLoader<>(fileName, 1024, 512, PcrTest.class, 64 * 1024);
+            HashFile<PcrTest> loadedFile = loader.load(records.iterator(), new FileOptions());
+            if (new java.io.File(fileName + "_wal.dat").exists()) {
+                System.out.println("ERROR: Log of old file left after load");
+                passed = false;
+            }
+            passed &= verifyRecords(loadedFile, expected, "load");
+            passed &= verifyRecords(insertedFile, expected, "insert");
+            passed &= verifyBucketCounts(loadedFile, expected.size(), "load");
+            for (int id = -1; id >= -50; id--) {
+                if (loadedFile.get(new PcrTest(id)) != null) {
+                    System.out.println("ERROR: Test " + id + " of old file found after load");
+                    passed = false;
+                }
+            }
+
+            // blocks free in old map are used by chains of loaded file
+            for (int id = recordsNum; id < 2 * recordsNum; id++) {
+                loadedFile.insert(createTest(id));
+                insertedFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            passed &= verifyRecords(loadedFile, expected, "insert into loaded file");
+            passed &= verifyRecords(insertedFile, expected, "insert");
+            loadedFile.close();
+            insertedFile.close();
+
+            loadedFile = new HashFile<>(fileName, 1024, 512, PcrTest.class);
+            passed &= verifyRecords(loadedFile, expected, "loaded file reopen");
+            passed &= verifyBucketCounts(loadedFile, expected.size(), "loaded file reopen");
+            loadedFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        deleteTestFiles(insertedName);
+        return passed;
+    }
+
+    // chains of three buckets grow in turns, so their blocks alternate in overflow file,
+    // third chain is deleted to leave free blocks, other two are moved in small steps, records and chain lengths stay,
+    // links written by defragment are followed by prefetching reads of async channel and by later deletes after reopen
+    public boolean testDefragment() {
+        String fileName = "test_defrag_pcrtests";
+        int recordsPerBucket = 400;
+        int idStep = 1 << 16; // ids of buckets 0, 1 and 2 stay in their buckets while file is smaller
+        deleteTestFiles(fileName);
+
+        FileOptions options = new FileOptions();
+        options.setChainPrefetch(true);
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed = true;
+        if (options.isChainPrefetch()) {
+            System.out.println("ERROR: Chain prefetch is on for synchronous storage");
+            passed = false;
+        }
+        options.setStorageMode(StorageMode.ASYNC_CHANNEL);
+        try {
+            HashFile<PcrTest> hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            if (!hashFile.isChainPrefetch()) {
+                System.out.println("ERROR: Chain prefetch is off for async channel");
+                passed = false;
+            }
+            Random r = new Random(1);
+            for (int k = 0; k < recordsPerBucket; k++) {
+                for (int bucket = 0; bucket < 3; bucket++) {
+                    int id = k * idStep + bucket;
+                    hashFile.insert(createTest(id));
+                    expected.put(id, "T" + id);
+                }
+            }
+            for (int id : new ArrayList<>(expected.keySet())) {
+                if (id % idStep == 2 || r.nextInt(4) == 0) {
+                    hashFile.delete(new PcrTest(id));
+                    expected.remove(id);
+                }
+            }
+
+            int[] histogram = hashFile.getChainLengthHistogram().clone();
+            System.out.println("Overflow buckets " + hashFile.getOverflowBucketCount() + ", longest chain " + hashFile.getMaxChainLength());
+            long overflowLength = new java.io.File(fileName + "_overflow.dat").length();
+            int moved = 0;
+            int calls = 0;
+            int step;
+            while ((step = hashFile.defragment(2)) > 0 && calls < 10_000) {
+                moved += step;
+                calls++;
+                if (calls % 100 == 0) {
+                    passed &= verifyRecords(hashFile, expected, "defragment step " + calls);
+                }
+            }
+            System.out.println("Defragment moved " + moved + " blocks in " + calls + " calls");
+            if (step > 0) {
+                System.out.println("ERROR: Defragment still moves blocks after " + calls + " calls");
+                passed = false;
+            }
+            passed &= verifyRecords(hashFile, expected, "defragment");
+            if (!java.util.Arrays.equals(histogram, hashFile.getChainLengthHistogram())) {
+                System.out.println("ERROR: Chain lengths changed by defragment");
+                passed = false;
+            }
+            hashFile.close();
+            if (new java.io.File(fileName + "_overflow.dat").length() > overflowLength) {
+                System.out.println("ERROR: Overflow file grew during defragment");
+                passed = false;
+            }
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            passed &= verifyRecords(hashFile, expected, "defragment reopen");
+            for (int id : new ArrayList<>(expected.keySet())) {
+                if (id % 3 == 0 && expected.remove(id) != null && !hashFile.delete(new PcrTest(id))) {
+                    System.out.println("ERROR: Test " + id + " not deleted after defragment");
+                    passed = false;
+                }
+            }
+            passed &= verifyRecords(hashFile, expected, "delete after defragment");
+            hashFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // with budget of one block, split of bucket with chain runs over several operations,
+    // records are looked up while they are spread over source and target, file is left without close mid split
+    public boolean testSplitBudget() {
+        String fileName = "test_budget_pcrtests";
+        int recordsNum = 3000;
+        deleteTestFiles(fileName);
+
+        FileOptions options = new FileOptions();
+        options.setSplitBudget(1);
+        options.setWriteAheadLog(true);
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed = true;
+        try {
+            HashFile<PcrTest> hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            Random r = new Random(2);
+            int checksDuringSplit = 0;
+            int id = 0;
+            for (; id < recordsNum || getIntField(hashFile, "migrationTarget") == -1; id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+                if (r.nextInt(5) == 0) {
+                    int deletedId = r.nextInt(id + 1);
+                    if (expected.remove(deletedId) != null && !hashFile.delete(new PcrTest(deletedId))) {
+                        System.out.println("ERROR: Test " + deletedId + " not deleted during split");
+                        passed = false;
+                    }
+                }
+
+                if (getIntField(hashFile, "migrationTarget") != -1) {
+                    checksDuringSplit++;
+                    for (int i = 0; i < 20; i++) {
+                        int checkedId = r.nextInt(id + 1);
+                        PcrTest found = hashFile.get(new PcrTest(checkedId));
+                        String note = expected.get(checkedId);
+                        if ((found == null) != (note == null) || (found != null && !found.getNote().equals(note))) {
+                            System.out.println("ERROR: Test " + checkedId + " wrong during split: " + found);
+                            passed = false;
+                        }
+                    }
+                }
+            }
+            if (checksDuringSplit == 0) {
+                System.out.println("ERROR: No lookup while split was in progress");
+                passed = false;
+            }
+            passed &= verifyRecords(hashFile, expected, "inserts with split budget");
+
+            // crash in middle of split, recovery finishes it
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            if (getIntField(hashFile, "migrationTarget") != -1) {
+                System.out.println("ERROR: Split not finished after reopen");
+                passed = false;
+            }
+            passed &= verifyRecords(hashFile, expected, "reopen mid split");
+            for (int i = 0; i < 500; i++, id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            passed &= verifyRecords(hashFile, expected, "inserts after reopen");
+            hashFile.close();
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            passed &= verifyRecords(hashFile, expected, "reopen after close");
+            hashFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // file left without close after clean reopen, chain statistics and record count are rebuilt from blocks
+    // changes keep bucket count, without log only structure of last close is known
+    public boolean testStatisticsAfterUncleanShutdown() {
+        String fileName = "test_stats_pcrtests";
+        int recordsNum = 2000;
+        int changedNum = 10;
+        deleteTestFiles(fileName);
+
+        FileOptions options = new FileOptions();
+        options.setStorageMode(StorageMode.FILE_CHANNEL); // no pool, every write reaches file
+        HashMap<Integer, String> expected = new HashMap<>();
+        boolean passed = true;
+        try {
+            HashFile<PcrTest> hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            for (int id = 0; id < recordsNum; id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            hashFile.close();
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            passed &= verifyBucketCounts(hashFile, expected.size(), "clean reopen");
+            int blockCount = hashFile.getBlockCount();
+            for (int id = 0; id < 2 * changedNum; id++) {
+                hashFile.delete(new PcrTest(id));
+                expected.remove(id);
+            }
+            for (int id = recordsNum; id < recordsNum + changedNum; id++) {
+                hashFile.insert(createTest(id));
+                expected.put(id, "T" + id);
+            }
+            if (hashFile.getBlockCount() != blockCount) {
+                System.out.println("ERROR: Bucket count changed, test needs other number of changes");
+                passed = false;
+            }
+
+            hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class, options);
+            passed &= verifyRecords(hashFile, expected, "reopen without close");
+            passed &= verifyBucketCounts(hashFile, expected.size(), "reopen without close");
+            hashFile.close();
+        } catch (IOException e) {
+            System.out.println("Error opening hash file: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // metrics are published only when asked after construction and are gone after close
+    public boolean testMetricsRegistration() {
+        String fileName = "test_metrics_pcrtests";
+        deleteTestFiles(fileName);
+
+        boolean passed = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName main = new ObjectName("file.metrics:type=HashFile,name=" + ObjectName.quote(fileName));
+            ObjectName overflow = new ObjectName("file.metrics:type=OverflowFile,name=" + ObjectName.quote(fileName));
+
+            HashFile<PcrTest> hashFile = new HashFile<>(fileName, 1024, 512, PcrTest.class);
+            if (server.isRegistered(main)) {
+                System.out.println("ERROR: Metrics registered by constructor");
+                passed = false;
+            }
+            hashFile.registerMetrics();
+            if (!server.isRegistered(main) || !server.isRegistered(overflow)) {
+                System.out.println("ERROR: Metrics not registered");
+                passed = false;
+            }
+            hashFile.close();
+            if (server.isRegistered(main) || server.isRegistered(overflow)) {
+                System.out.println("ERROR: Metrics still registered after close");
+                passed = false;
+            }
+        } catch (IOException | JMException e) {
+            System.out.println("Error in metrics test: " + e.getMessage());
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    private boolean verifyBucketCounts(HashFile<PcrTest> hashFile, int recordsNum, String stage) {
+        int sum = 0;
+        for (int i = 0; i < hashFile.getBlockCount(); i++) {
+            sum += hashFile.getBucketRecordCount(i);
+        }
+        if (sum != recordsNum) {
+            System.out.println("ERROR: Buckets hold " + sum + " records after " + stage + ", expected " + recordsNum);
+            return false;
+        }
+        return true;
+    }
+
+    // every expected id with its note and nothing else
+    private boolean verifyRecords(HashFile<PcrTest> hashFile, HashMap<Integer, String> expected, String stage) {
+        boolean passed = true;
+        for (HashMap.Entry<Integer, String> entry : expected.entrySet()) {
+            PcrTest found = hashFile.get(new PcrTest(entry.getKey()));
+            if (found == null || !found.getNote().equals(entry.getValue())) {
+                System.out.println("ERROR: Test " + entry.getKey() + " wrong after " + stage + ": " + found);
+                passed = false;
+            }
+        }
+        if (hashFile.getRecordCount() != expected.size()) {
+            System.out.println("ERROR: Record count " + hashFile.getRecordCount() + " after " + stage
+                    + ", expected " + expected.size());
+            passed = false;
+        }
+        return passed;
+    }
+
+    // same rule as hash file, bucket before split pointer uses next hash power
+    private int bucketOf(HashFile<PcrTest> hashFile, int id) {
+        int index = id % hashFile.getHashEdge();
+        if (index < hashFile.getSplitPointer()) {
+            index = id % (hashFile.getHashEdge() * 2);
+        }
+        return index;
+    }
+
+    private PcrTest createTest(int id) {
+        return createTest(id, "T" + id);
+    }
+
+    private PcrTest createTest(int id, String note) {
+        return new PcrTest(id, "PAT" + id, LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(id), true, id % 100, note);
+    }
+
     private void testRecordPlacementBeforeInsert(HashFile<PcrTest> hashFile, PcrTest test) {
         PcrTest found = hashFile.get(test);
         if (found != null) {
@@ -242,8 +815,12 @@ public class HashFileTester {
     }
 
     private int getRecordCount(HashFile<PcrTest> hashFile) {
+        return getIntField(hashFile, "recordCount");
+    }
+
+    private int getIntField(HashFile<PcrTest> hashFile, String name) {
         try {
-            java.lang.reflect.Field field = hashFile.getClass().getDeclaredField("recordCount");
+            java.lang.reflect.Field field = hashFile.getClass().getDeclaredField(name);
             field.setAccessible(true);
             return (int) field.get(hashFile);
         } catch (Exception e) {
@@ -293,7 +870,7 @@ public class HashFileTester {
     }
 
     private void deleteTestFiles(String baseName) {
-        String[] extensions = {".dat","_heap.dat", "_hash.dat", "_overflow.dat", "_overflow_heap.dat"};
+        String[] extensions = {".dat.dat", ".dat_heap.dat", "_hash.dat", "_overflow.dat", "_overflow_heap.dat", "_wal.dat"};
         for (String ext : extensions) {
             java.io.File file = new java.io.File(baseName + ext);
             if (file.exists()) {
@@ -337,5 +914,61 @@ public class HashFileTester {
         HashFileTester tester = new HashFileTester();
         System.out.println("=== STARTING ENHANCED HASH FILE TEST WITH PCR TESTS ===");
         tester.testMethods(true);
+
+        System.out.println("\n=== MERGE OF FULL BUCKETS ===");
+        if (tester.testMergeOfFullBuckets()) {
+            System.out.println("✓ Merge of full buckets PASSED");
+        } else {
+            System.out.println("✗ Merge of full buckets FAILED");
+        }
+
+        System.out.println("\n=== MAPPED STORAGE REOPEN ===");
+        if (tester.testMappedReopen()) {
+            System.out.println("✓ Mapped storage reopen PASSED");
+        } else {
+            System.out.println("✗ Mapped storage reopen FAILED");
+        }
+
+        System.out.println("\n=== INSERT ALL EQUIVALENCE ===");
+        if (tester.testInsertAllEquivalence()) {
+            System.out.println("✓ Insert all equivalence PASSED");
+        } else {
+            System.out.println("✗ Insert all equivalence FAILED");
+        }
+
+        System.out.println("\n=== LOADER EQUIVALENCE ===");
+        if (tester.testLoaderEquivalence()) {
+            System.out.println("✓ Loader equivalence PASSED");
+        } else {
+            System.out.println("✗ Loader equivalence FAILED");
+        }
+
+        System.out.println("\n=== DEFRAGMENT ===");
+        if (tester.testDefragment()) {
+            System.out.println("✓ Defragment PASSED");
+        } else {
+            System.out.println("✗ Defragment FAILED");
+        }
+
+        System.out.println("\n=== SPLIT BUDGET ===");
+        if (tester.testSplitBudget()) {
+            System.out.println("✓ Split budget PASSED");
+        } else {
+            System.out.println("✗ Split budget FAILED");
+        }
+
+        System.out.println("\n=== STATISTICS AFTER UNCLEAN SHUTDOWN ===");
+        if (tester.testStatisticsAfterUncleanShutdown()) {
+            System.out.println("✓ Statistics after unclean shutdown PASSED");
+        } else {
+            System.out.println("✗ Statistics after unclean shutdown FAILED");
+        }
+
+        System.out.println("\n=== METRICS REGISTRATION ===");
+        if (tester.testMetricsRegistration()) {
+            System.out.println("✓ Metrics registration PASSED");
+        } else {
+            System.out.println("✗ Metrics registration FAILED");
+        }
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package tests;
 
 import whoApp.data.Patient;
+import file.heapfile.FreeSpaceMap;
 import file.heapfile.HeapFile;
 
 import java.io.FileNotFoundException;
@@ -31,8 +32,6 @@ public class HeapFileTester {
         } catch (FileNotFoundException e) {
             System.out.println("File not found");
             return;
-        } catch (IOException e) {
-            System.out.println("Error create heap file");
         }
 
         int numEquals = 0;
@@ -135,6 +134,179 @@ public class HeapFileTester {
         deleteTestFiles(fileName);
     }
 
+    // block emptied by deletes is reused until full, insert after it must not overwrite that block
+    public boolean testReusedEmptyBlock() {
+        String fileName = "test_reuse_patients";
+        deleteTestFiles(fileName);
+
+        HeapFile<Patient> heapFile;
+        try {
+            heapFile = new HeapFile<>(fileName, 1024, Patient.class);
+        } catch (IOException e) {
+            System.out.println("Error create heap file");
+            return false;
+        }
+
+        // three full blocks, first one is emptied
+        LinkedList<PatientBlockPair> linkedList = new LinkedList<>();
+        int recordsNum = 3 * heapFile.getRecordsPerBlock();
+        for (int i = 0; i < recordsNum; i++) {
+            Patient p = new Patient("FN" + i, "LN" + i, LocalDate.of(2000, 1, 1).plusDays(i), "" + i);
+            linkedList.add(new PatientBlockPair(p, heapFile.insert(p)));
+        }
+        int emptiedBlock = linkedList.getFirst().getBlock();
+        linkedList.removeIf(pair -> pair.getBlock() == emptiedBlock && heapFile.delete(pair.getBlock(), pair.getPatient()));
+
+        // reused block is filled, next insert needs other block and must not take it again
+        boolean passed = true;
+        for (int i = recordsNum; i <= recordsNum + heapFile.getRecordsPerBlock(); i++) {
+            Patient p = new Patient("FN" + i, "LN" + i, LocalDate.of(2000, 1, 1).plusDays(i), "" + i);
+            int blockIndex = heapFile.insert(p);
+            boolean shouldReuse = i < recordsNum + heapFile.getRecordsPerBlock();
+            if ((blockIndex == emptiedBlock) != shouldReuse) {
+                System.out.println("ERROR: Insert " + (i - recordsNum + 1) + " went to block " + blockIndex
+                        + ", emptied block is " + emptiedBlock);
+                passed = false;
+            }
+            linkedList.add(new PatientBlockPair(p, blockIndex));
+        }
+        passed &= verifyAllRecords(heapFile, linkedList);
+
+        heapFile.close();
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // empty and partially empty blocks are known after close and reopen, inserts fill them before file grows
+    // after reopen without close map can be stale, inserts still must not overwrite records
+    public boolean testFreeSpaceReopen() {
+        String fileName = "test_fsm_patients";
+        int blocksNum = 40;
+        deleteTestFiles(fileName);
+
+        boolean passed = true;
+        try {
+            HeapFile<Patient> heapFile = new HeapFile<>(fileName, 1024, Patient.class);
+            int recordsPerBlock = heapFile.getRecordsPerBlock();
+            LinkedList<PatientBlockPair> linkedList = new LinkedList<>();
+            int nextId = 0;
+            for (; nextId < blocksNum * recordsPerBlock; nextId++) {
+                Patient p = createPatient(nextId);
+                linkedList.add(new PatientBlockPair(p, heapFile.insert(p)));
+            }
+
+            // every fifth block emptied, one record deleted from blocks 7 and 21
+            int freeSlots = 0;
+            boolean[] deletedOne = new boolean[blocksNum];
+            for (PatientBlockPair pair : new LinkedList<>(linkedList)) {
+                int block = pair.getBlock();
+                boolean delete = block % 5 == 0 || ((block == 7 || block == 21) && !deletedOne[block]);
+                if (delete && heapFile.delete(block, pair.getPatient())) {
+                    deletedOne[block] = true;
+                    linkedList.remove(pair);
+                    freeSlots++;
+                }
+            }
+            heapFile.close();
+
+            heapFile = new HeapFile<>(fileName, 1024, Patient.class);
+            if (heapFile.getBlockCount() != blocksNum) {
+                System.out.println("ERROR: Block count " + heapFile.getBlockCount() + " after reopen, expected " + blocksNum);
+                passed = false;
+            }
+            for (int i = 0; i < freeSlots; i++, nextId++) {
+                Patient p = createPatient(nextId);
+                int blockIndex = heapFile.insert(p);
+                if (blockIndex >= blocksNum) {
+                    System.out.println("ERROR: Insert " + (i + 1) + "/" + freeSlots + " went to new block " + blockIndex);
+                    passed = false;
+                }
+                linkedList.add(new PatientBlockPair(p, blockIndex));
+            }
+            Patient next = createPatient(nextId++);
+            int nextBlock = heapFile.insert(next);
+            if (nextBlock != blocksNum) {
+                System.out.println("ERROR: Insert after free space is used went to block " + nextBlock);
+                passed = false;
+            }
+            linkedList.add(new PatientBlockPair(next, nextBlock));
+            passed &= verifyAllRecords(heapFile, linkedList);
+
+            // blocks 2 and 3 emptied, block 2 filled again, file is left without close
+            for (PatientBlockPair pair : new LinkedList<>(linkedList)) {
+                if ((pair.getBlock() == 2 || pair.getBlock() == 3) && heapFile.delete(pair.getBlock(), pair.getPatient())) {
+                    linkedList.remove(pair);
+                }
+            }
+            for (int i = 0; i < recordsPerBlock; i++, nextId++) {
+                Patient p = createPatient(nextId);
+                linkedList.add(new PatientBlockPair(p, heapFile.insert(p)));
+            }
+
+            heapFile = new HeapFile<>(fileName, 1024, Patient.class);
+            passed &= verifyAllRecords(heapFile, linkedList);
+            for (int i = 0; i < 3 * recordsPerBlock; i++, nextId++) {
+                Patient p = createPatient(nextId);
+                linkedList.add(new PatientBlockPair(p, heapFile.insert(p)));
+            }
+            passed &= verifyAllRecords(heapFile, linkedList);
+            heapFile.close();
+
+            heapFile = new HeapFile<>(fileName, 1024, Patient.class);
+            passed &= verifyAllRecords(heapFile, linkedList);
+            heapFile.close();
+        } catch (IOException e) {
+            System.out.println("Error create heap file");
+            passed = false;
+        }
+
+        deleteTestFiles(fileName);
+        return passed;
+    }
+
+    // cleared set must not read blocks back from pages stored before clear
+    public boolean testFreeSpaceMapClear() {
+        String fileName = "test_fsm_heap.dat";
+        int secondPage = 4096 * Byte.SIZE; // first block of second map page
+        new java.io.File(fileName).delete();
+
+        boolean passed = true;
+        try {
+            FreeSpaceMap map = new FreeSpaceMap(fileName);
+            map.getEmptyBlocks().insert(5);
+            map.getEmptyBlocks().insert(secondPage + 5);
+            map.close(secondPage + 10);
+
+            map = new FreeSpaceMap(fileName);
+            map.getEmptyBlocks().clear();
+            map.getEmptyBlocks().insert(7);
+            if (map.getEmptyBlocks().contains(5) || map.getEmptyBlocks().contains(secondPage + 5)
+                    || map.getEmptyBlocks().size() != 1) {
+                System.out.println("ERROR: Cleared blocks read back: " + map.getEmptyBlocks());
+                passed = false;
+            }
+            map.close(secondPage + 10);
+
+            map = new FreeSpaceMap(fileName);
+            if (map.getEmptyBlocks().size() != 1 || map.getEmptyBlocks().findMin() != 7
+                    || map.getEmptyBlocks().contains(secondPage + 5)) {
+                System.out.println("ERROR: Blocks after reopen: " + map.getEmptyBlocks());
+                passed = false;
+            }
+            map.close(secondPage + 10);
+        } catch (IOException e) {
+            System.out.println("Error opening free space map");
+            passed = false;
+        }
+
+        new java.io.File(fileName).delete();
+        return passed;
+    }
+
+    private Patient createPatient(int id) {
+        return new Patient("FN" + id, "LN" + id, LocalDate.of(2000, 1, 1).plusDays(id), "" + id);
+    }
+
     private boolean verifyAllRecords(HeapFile<Patient> heapFile, LinkedList<PatientBlockPair> linkedList) {
         System.out.println("Verifying " + linkedList.size() + " records...");
 
@@ -199,5 +371,26 @@ public class HeapFileTester {
         HeapFileTester tester = new HeapFileTester();
         System.out.println("=== STARTING HEAP FILE TEST ===");
         tester.testMethods(true);
+
+        System.out.println("=== REUSED EMPTY BLOCK ===");
+        if (tester.testReusedEmptyBlock()) {
+            System.out.println("✓ Reused empty block PASSED");
+        } else {
+            System.out.println("✗ Reused empty block FAILED");
+        }
+
+        System.out.println("=== FREE SPACE AFTER REOPEN ===");
+        if (tester.testFreeSpaceReopen()) {
+            System.out.println("✓ Free space after reopen PASSED");
+        } else {
+            System.out.println("✗ Free space after reopen FAILED");
+        }
+
+        System.out.println("=== FREE SPACE MAP CLEAR ===");
+        if (tester.testFreeSpaceMapClear()) {
+            System.out.println("✓ Free space map clear PASSED");
+        } else {
+            System.out.println("✗ Free space map clear FAILED");
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package tests;
+
+import file.hashfile.HashFile;
+import file.storage.FileOptions;
+import file.storage.StorageMode;
+import whoApp.data.PcrTest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+// child process writes with log on and reports every operation before it starts and after it returns,
+// parent kills it and checks that every returned operation survived recovery
+public class WriteAheadLogTester {
+    private static final String FILE_NAME = "test_wal_pcrtests";
+    private static final int THREADS = 4;
+    private static final int IDS_PER_THREAD = 1_000_000;
+
+    private int failedChecks;
+
+    public boolean testCrash(int acknowledgedBeforeKill) throws IOException, InterruptedException {
+        failedChecks = 0;
+        deleteTestFiles();
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                WriteAheadLogTester.class.getName(), "child")
+                .redirectErrorStream(true)
+                .start();
+
+        // last returned state of every id, null = deleted, ids with operation in progress are not checked
+        HashMap<Integer, String> expected = new HashMap<>();
+        HashSet<Integer> inProgress = new HashSet<>();
+        int acknowledged = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            String line;
+            while (acknowledged < acknowledgedBeforeKill && (line = reader.readLine()) != null) {
+                if (readLine(line, expected, inProgress)) {
+                    acknowledged++;
+                }
+            }
+            child.toHandle().destroyForcibly(); // SIGKILL, unlike Process.destroyForcibly output stays readable
+
+            // operations reported before kill
+            while ((line = reader.readLine()) != null) {
+                if (readLine(line, expected, inProgress)) {
+                    acknowledged++;
+                }
+            }
+        }
+        child.waitFor();
+
+        FileOptions options = new FileOptions();
+        options.setStorageMode(StorageMode.FILE_CHANNEL);
+        options.setWriteAheadLog(true);
+        HashFile<PcrTest> hashFile = new HashFile<>(FILE_NAME, 1024, 512, PcrTest.class, options);
+
+        int found = 0;
+        for (HashMap.Entry<Integer, String> entry : expected.entrySet()) {
+            PcrTest test = hashFile.get(new PcrTest(entry.getKey()));
+            if (test != null) {
+                found++;
+            }
+            if (inProgress.contains(entry.getKey())) {
+                continue;
+            }
+            if (entry.getValue() == null && test != null) {
+                System.out.println("ERROR: Deleted test found after recovery: " + test);
+                failedChecks++;
+            } else if (entry.getValue() != null && (test == null || !test.getNote().equals(entry.getValue()))) {
+                System.out.println("ERROR: Test " + entry.getKey() + " lost after recovery, found: " + test);
+                failedChecks++;
+            }
+        }
+        for (int id : inProgress) {
+            if (!expected.containsKey(id) && hashFile.get(new PcrTest(id)) != null) {
+                found++; // insert in progress was logged before kill
+            }
+        }
+
+        if (hashFile.getRecordCount() != found) {
+            System.out.println("ERROR: Record count " + hashFile.getRecordCount() + " != " + found);
+            failedChecks++;
+        }
+
+        // recovered file keeps working
+        for (int id = -1; id > -200; id--) {
+            hashFile.insert(createTest(id, "R" + id));
+        }
+        for (int id = -1; id > -200; id--) {
+            if (hashFile.get(new PcrTest(id)) == null) {
+                System.out.println("ERROR: Test inserted after recovery not found: " + id);
+                failedChecks++;
+            }
+        }
+        hashFile.close();
+        deleteTestFiles();
+
+        System.out.println("Killed after " + acknowledged + " operations, " + expected.size() + " ids checked, "
+                + inProgress.size() + " in progress");
+        return failedChecks == 0;
+    }
+
+    // returns true when line reports finished operation
+    private boolean readLine(String line, HashMap<Integer, String> expected, HashSet<Integer> inProgress) {
+        String[] parts = line.split(" ");
+        if (parts.length < 3 || !(parts[0].equals("START") || parts[0].equals("DONE"))) {
+            return false; // other output of child
+        }
+        int id = Integer.parseInt(parts[2]);
+        if (parts[0].equals("START")) {
+            inProgress.add(id);
+            return false;
+        }
+        inProgress.remove(id);
+        expected.put(id, parts[1].equals("D") ? null : parts[3]);
+        return true;
+    }
+
+    // ids of every thread are its own, so per id operations are in order
+    private static void runChild() throws IOException {
+        FileOptions options = new FileOptions();
+        options.setStorageMode(StorageMode.FILE_CHANNEL);
+        options.setWriteAheadLog(true);
+        HashFile<PcrTest> hashFile = new HashFile<>(FILE_NAME, 1024, 512, PcrTest.class, options);
+
+        for (int t = 0; t < THREADS; t++) {
+            final int threadIndex = t;
+            new Thread(() -> {
+                Random r = new Random(threadIndex);
+                int nextId = threadIndex * IDS_PER_THREAD;
+                while (true) {
+                    int methodProb = r.nextInt(100);
+                    if (methodProb < 60 || nextId == threadIndex * IDS_PER_THREAD) {
+                        int id = nextId++;
+                        String note = "N" + id;
+                        System.out.println("START I " + id);
+                        hashFile.insert(createTest(id, note));
+                        System.out.println("DONE I " + id + " " + note);
+                    } else if (methodProb < 80) {
+                        int id = threadIndex * IDS_PER_THREAD + r.nextInt(nextId - threadIndex * IDS_PER_THREAD);
+                        String note = "E" + r.nextInt(1_000_000); // note has at most 11 chars
+                        System.out.println("START E " + id);
+                        if (hashFile.edit(createTest(id, note))) {
+                            System.out.println("DONE E " + id + " " + note);
+                        } else {
+                            System.out.println("DONE D " + id); // deleted before
+                        }
+                    } else {
+                        int id = threadIndex * IDS_PER_THREAD + r.nextInt(nextId - threadIndex * IDS_PER_THREAD);
+                        System.out.println("START D " + id);
+                        hashFile.delete(new PcrTest(id));
+                        System.out.println("DONE D " + id);
+                    }
+                }
+            }).start();
+        }
+    }
+
+    private static PcrTest createTest(int id, String note) {
+        return new PcrTest(id, "PAT" + id, LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(id), true, id % 100, note);
+    }
+
+    private void deleteTestFiles() {
+        String[] extensions = {".dat.dat", ".dat_heap.dat", "_hash.dat", "_overflow.dat", "_overflow_heap.dat", "_wal.dat"};
+        for (String ext : extensions) {
+            File file = new File(FILE_NAME + ext);
+            if (file.exists() && !file.delete()) {
+                System.out.println("Failed to delete old test file: " + file.getName());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("child")) {
+            runChild();
+            return;
+        }
+
+        WriteAheadLogTester tester = new WriteAheadLogTester();
+        int passed = 0;
+        int[] killPoints = {100, 1000, 5000, 20000};
+        for (int killPoint : killPoints) {
+            System.out.println("=== KILL AFTER " + killPoint + " OPERATIONS ===");
+            if (tester.testCrash(killPoint)) {
+                passed++;
+                System.out.println("✓ Recovery PASSED");
+            } else {
+                System.out.println("✗ Recovery FAILED");
+            }
+        }
+        System.out.println("\nSummary: " + passed + "/" + killPoints.length + " passed");
+    }
+}
@@ -11,8 +11,10 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
-public class WhoGUI extends JFrame {
-    private WhoSystem system;
+public final class WhoGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    private transient WhoSystem system;
     private JTextArea outputArea;
     private JButton btnNewSystem;
     private JButton btnLoadSystem;
@@ -0,0 +1,173 @@
+package whoApp;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// every client is one connection on own virtual thread, latencies are measured per request
+public class WhoLoadClient {
+    private static final int INSERT_ID_BASE = 10_000_000;
+    private static final int INSERT_IDS_PER_CLIENT = 100_000;
+
+    private final int port;
+    private final int clientCount;
+    private final int seconds;
+    private final int patientCount;
+    private final int testCount;
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    public WhoLoadClient(int port, int clientCount, int seconds, int patientCount, int testCount) {
+        this.port = port;
+        this.clientCount = clientCount;
+        this.seconds = seconds;
+        this.patientCount = patientCount;
+        this.testCount = testCount;
+    }
+
+    public void run() throws InterruptedException {
+        ArrayList<long[]> latencies = new ArrayList<>();
+        int[] counts = new int[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            latencies.add(new long[1024]);
+        }
+
+        // every client connects first, measuring starts together
+        CountDownLatch connected = new CountDownLatch(clientCount);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clientCount; c++) {
+                final int client = c;
+                clients.submit(() -> {
+                    boolean ready = false;
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                         BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                        socket.setTcpNoDelay(true);
+                        ready = true;
+                        connected.countDown();
+                        start.await();
+
+                        Random random = new Random(client);
+                        int nextTestId = INSERT_ID_BASE + client * INSERT_IDS_PER_CLIENT;
+                        while (System.nanoTime() < deadline[0]) {
+                            String request = createRequest(random, nextTestId);
+                            if (request.startsWith("INSERT_TEST")) {
+                                nextTestId++;
+                            }
+
+                            long begin = System.nanoTime();
+                            writer.write(request);
+                            writer.newLine();
+                            writer.flush();
+                            String response = reader.readLine();
+                            long latency = System.nanoTime() - begin;
+
+                            if (response == null || response.startsWith("ERROR")) {
+                                errors.incrementAndGet();
+                                if (response == null) {
+                                    break;
+                                }
+                            }
+
+                            long[] clientLatencies = latencies.get(client);
+                            if (counts[client] == clientLatencies.length) {
+                                clientLatencies = Arrays.copyOf(clientLatencies, clientLatencies.length * 2);
+                                latencies.set(client, clientLatencies);
+                            }
+                            clientLatencies[counts[client]++] = latency;
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                        if (!ready) {
+                            connected.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            }
+
+            connected.await();
+            deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+            start.countDown();
+        }
+
+        printResults(latencies, counts);
+    }
+
+    // 60% patient, 25% test, 14% insert, 1% remove
+    private String createRequest(Random random, int nextTestId) {
+        int operation = random.nextInt(100);
+        String patientId = "" + random.nextInt(Math.max(patientCount, 1));
+
+        if (operation < 60) {
+            return "FIND_PATIENT" + WhoServer.SEPARATOR + patientId;
+        } else if (operation < 85) {
+            return "FIND_TEST" + WhoServer.SEPARATOR + random.nextInt(Math.max(testCount, 1));
+        } else if (operation < 99) {
+            return String.join(WhoServer.SEPARATOR,
+                    "INSERT_TEST",
+                    "" + nextTestId,
+                    patientId,
+                    LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(nextTestId % 1_000_000).toString(),
+                    "" + random.nextBoolean(),
+                    "" + random.nextDouble() * 100.0,
+                    "load");
+        } else {
+            return "REMOVE_PATIENT" + WhoServer.SEPARATOR + patientId;
+        }
+    }
+
+    private void printResults(ArrayList<long[]> latencies, int[] counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+
+        long[] all = new long[total];
+        int position = 0;
+        for (int c = 0; c < clientCount; c++) {
+            System.arraycopy(latencies.get(c), 0, all, position, counts[c]);
+            position += counts[c];
+        }
+        Arrays.sort(all);
+
+        System.out.println("=== LOAD RESULTS ===");
+        System.out.println("Clients: " + clientCount + ", duration: " + seconds + " s");
+        System.out.println("Requests: " + total + ", errors: " + errors.get());
+        System.out.printf("Throughput: %.1f ops/s%n", (double) total / seconds);
+        if (total > 0) {
+            System.out.printf("Latency p50: %.3f ms, p99: %.3f ms, max: %.3f ms%n",
+                    percentile(all, 0.50), percentile(all, 0.99), all[total - 1] / 1_000_000.0);
+        }
+    }
+
+    private double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    // args: [port] [clients] [seconds] [patientCount] [testCount]
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : WhoServer.DEFAULT_PORT;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int patientCount = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int testCount = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+
+        new WhoLoadClient(port, clients, seconds, patientCount, testCount).run();
+    }
+}
@@ -0,0 +1,149 @@
+package whoApp;
+
+import whoApp.data.Patient;
+import whoApp.data.PcrTest;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// headless mode, one request per line, fields separated by ';'
+//   FIND_PATIENT;patientId
+//   FIND_TEST;testId
+//   INSERT_TEST;testId;patientId;dateTime;result;value;note
+//   REMOVE_PATIENT;patientId
+// answer is one line: OK[;record], NOT_FOUND, FAILED or ERROR;message
+public class WhoServer {
+    public static final int DEFAULT_PORT = 5050;
+    static final String SEPARATOR = ";";
+    private static final int BACKLOG = 4096;
+
+    private final WhoSystem system;
+    private final int port;
+    private volatile ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    public WhoServer(WhoSystem system, int port) {
+        this.system = system;
+        this.port = port;
+    }
+
+    // accepts until stop, every connection gets own virtual thread
+    public void run() throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        System.out.println("WHO server listening on port " + serverSocket.getLocalPort());
+
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                break; // closed by stop
+            }
+            openSockets.add(socket);
+            connections.submit(() -> serve(socket));
+        }
+    }
+
+    // sockets are closed instead of interrupting, interrupt would close data file channels
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            for (Socket socket : openSockets) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error closing server socket!");
+        }
+        connections.close(); // waits for running requests
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(handle(line));
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // client disconnected
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    String handle(String line) {
+        String[] parts = line.split(SEPARATOR, -1);
+        try {
+            switch (parts[0]) {
+                case "FIND_PATIENT": {
+                    Patient patient = system.findPatient(parts[1]);
+                    return patient != null ? "OK" + SEPARATOR + patient : "NOT_FOUND";
+                }
+                case "FIND_TEST": {
+                    PcrTest test = system.findPcrTest(Integer.parseInt(parts[1]));
+                    return test != null ? "OK" + SEPARATOR + test : "NOT_FOUND";
+                }
+                case "INSERT_TEST": {
+                    PcrTest test = new PcrTest(
+                            Integer.parseInt(parts[1]),
+                            parts[2],
+                            LocalDateTime.parse(parts[3]),
+                            Boolean.parseBoolean(parts[4]),
+                            Double.parseDouble(parts[5]),
+                            parts[6]
+                    );
+                    return system.insertPcrTest(test) ? "OK" : "FAILED";
+                }
+                case "REMOVE_PATIENT":
+                    return system.removePatient(parts[1]) ? "OK" : "NOT_FOUND";
+                default:
+                    return "ERROR" + SEPARATOR + "unknown request " + parts[0];
+            }
+        } catch (RuntimeException e) {
+            return "ERROR" + SEPARATOR + e.getMessage();
+        }
+    }
+
+    // args: systemName [port] [patientCount testCount], new system is generated when counts are given
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: WhoServer systemName [port] [patientCount testCount]");
+            return;
+        }
+
+        String systemName = args[0];
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+
+        WhoSystem system;
+        if (args.length > 3) {
+            system = new WhoSystem(systemName, 1024, 512);
+            system.generate(Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } else {
+            system = new WhoSystem(systemName);
+        }
+
+        WhoServer server = new WhoServer(system, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            system.close();
+        }));
+        server.run();
+    }
+}
@@ -1,6 +1,9 @@
 package whoApp;
 
 import file.hashfile.HashFile;
+import file.hashfile.HashFileLoader;
+import file.storage.BufferPool;
+import file.storage.FileOptions;
 import whoApp.data.Patient;
 import whoApp.data.PcrTest;
 
@@ -9,18 +12,28 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class WhoSystem {
+public final class WhoSystem {
     private HashFile<Patient> patients;
     private HashFile<PcrTest> pcrTests;
 
     private final String systemName;
     private int blockSize;
     private int overflowBlockSize;
-    private int nextPatientId;
-    private int nextPcrTestId;
+    private final AtomicInteger nextPatientId = new AtomicInteger();
+    private final AtomicInteger nextPcrTestId = new AtomicInteger();
 
     private Random random = new Random();
+    private static final long BUFFER_POOL_CAPACITY = 16L * 1024 * 1024;
+    private BufferPool bufferPool = new BufferPool(BUFFER_POOL_CAPACITY); // shared by patients and tests
+    // patient record and its tests are changed together, one patient at a time
+    private static final int PATIENT_LOCK_STRIPES = 64;
+    private final ReentrantLock[] patientLocks = createPatientLocks();
+    // patients file is replaced by bulk load, every use of it holds read lock, taken after patient lock
+    private final ReentrantReadWriteLock patientsFileLock = new ReentrantReadWriteLock();
 
     public WhoSystem(String systemName, int blockSize, int overflowBlockSize) {
         //delete old with same systemName
@@ -30,12 +43,14 @@ public class WhoSystem {
         this.systemName = systemName;
         this.blockSize = blockSize;
         this.overflowBlockSize = overflowBlockSize;
-        this.nextPatientId = 0;
-        this.nextPcrTestId = 0;
+        this.nextPatientId.set(0);
+        this.nextPcrTestId.set(0);
 
         try {
-            this.patients = new HashFile<>(systemName + "_patients", blockSize, overflowBlockSize,  Patient.class);
-            this.pcrTests = new HashFile<>(systemName + "_pcrTests", blockSize, overflowBlockSize,  PcrTest.class);
+            this.patients = new HashFile<>(systemName + "_patients", blockSize, overflowBlockSize,  Patient.class, createFileOptions());
+            this.pcrTests = new HashFile<>(systemName + "_pcrTests", blockSize, overflowBlockSize,  PcrTest.class, createFileOptions());
+            patients.registerMetrics();
+            pcrTests.registerMetrics();
         } catch (IOException e) {
             throw new RuntimeException("Error creating file at " + systemName, e);
         }
@@ -62,17 +77,18 @@ public class WhoSystem {
 
         while (success < count && attempts < maxAttempts) {
             attempts++;
-            String randomPatientId = "" + random.nextInt(nextPatientId);
+            String randomPatientId = "" + random.nextInt(nextPatientId.get());
+            int testId = nextPcrTestId.get();
 
             PcrTest test = new PcrTest(
-                    nextPcrTestId,
+                    testId,
                     randomPatientId,
                     LocalDateTime.of(2020, 1, 1, 0, 0, 0)
-                            .plusDays(nextPcrTestId)
-                            .plusMinutes(nextPcrTestId),
+                            .plusDays(testId)
+                            .plusMinutes(testId),
                     random.nextBoolean(),
                     random.nextDouble() * 100.0,
-                    "note: " + nextPcrTestId
+                    "note: " + testId
             );
 
             if (insertPcrTest(test)) {
@@ -82,53 +98,90 @@ public class WhoSystem {
     }
 
     private void generateRandomPatients(int count) {
+        ArrayList<Patient> newPatients = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
-            patients.insert(new Patient(
-                    "FN" + nextPatientId,
-                    "LN" + nextPatientId,
-                    LocalDate.of(2000, 1, 1).plusDays(nextPatientId),
-                    "" + nextPatientId
+            int patientId = nextPatientId.getAndIncrement();
+            newPatients.add(new Patient(
+                    "FN" + patientId,
+                    "LN" + patientId,
+                    LocalDate.of(2000, 1, 1).plusDays(patientId),
+                    "" + patientId
             ));
-            nextPatientId++;
+        }
+
+        patientsFileLock.writeLock().lock();
+        try {
+            if (patients.getRecordCount() == 0) {
+                // empty file is rebuilt with sequential writes
+                patients.close();
+                try {
+                    patients = new HashFileLoader<>(systemName + "_patients", blockSize, overflowBlockSize, Patient.class)
+                            .load(newPatients.iterator(), createFileOptions());
+                    patients.registerMetrics();
+                } catch (IOException e) {
+                    throw new RuntimeException("Error loading patients at " + systemName, e);
+                }
+                return;
+            }
+            patientsFileLock.readLock().lock(); // downgrade, other operations run during insert
+        } finally {
+            patientsFileLock.writeLock().unlock();
+        }
+        try {
+            patients.insertAll(newPatients);
+        } finally {
+            patientsFileLock.readLock().unlock();
         }
     }
 
     public boolean insertPcrTest(PcrTest pcrTest) {
         // find patient
         String patientId = pcrTest.getPatientId();
-        Patient patient = findPatient(patientId);
+        ReentrantLock patientLock = patientLock(patientId);
+        patientLock.lock();
+        try {
+            Patient patient = findPatient(patientId);
 
-        if (patient == null) {
-            System.out.println("Patient with ID " + patientId + " not found. Test not inserted.");
-            return false;
-        }
+            if (patient == null) {
+                System.out.println("Patient with ID " + patientId + " not found. Test not inserted.");
+                return false;
+            }
 
-        // test for patient
-        boolean assignedToPatient = patient.insertTest(pcrTest);
-        if (!assignedToPatient) {
-            System.out.println("Patient " + patientId + " has reached maximum test limit. Test not inserted.");
-            return false;
-        }
+            // test for patient
+            boolean assignedToPatient = patient.insertTest(pcrTest);
+            if (!assignedToPatient) {
+                System.out.println("Patient " + patientId + " has reached maximum test limit. Test not inserted.");
+                return false;
+            }
 
-        // update patient
-        boolean patientUpdated = editPatient(patient);
-        if (!patientUpdated) {
-            System.out.println("Failed to update patient " + patientId + " with new test.");
-            return false;
-        }
+            // update patient
+            boolean patientUpdated = editPatient(patient);
+            if (!patientUpdated) {
+                System.out.println("Failed to update patient " + patientId + " with new test.");
+                return false;
+            }
 
-        // test insert
-        if (pcrTests.insert(pcrTest) >= 0) {
-            nextPcrTestId++;
-            return true;
-        }
+            // test insert
+            if (pcrTests.insert(pcrTest) >= 0) {
+                nextPcrTestId.accumulateAndGet(pcrTest.getTestId() + 1, Math::max);
+                return true;
+            }
 
-        return false;
+            return false;
+        } finally {
+            patientLock.unlock();
+        }
     }
 
     public Patient findPatient(String id) {
         Patient p = new Patient(id);
-        Patient foundPatient = patients.get(p);
+        Patient foundPatient;
+        patientsFileLock.readLock().lock();
+        try {
+            foundPatient = patients.get(p);
+        } finally {
+            patientsFileLock.readLock().unlock();
+        }
         if (foundPatient == null) {
             return null;
         }
@@ -145,50 +198,82 @@ public class WhoSystem {
     }
 
     public boolean insertPatient(Patient patient) {
-        if (patients.insert(patient) >= 0) {
-            nextPatientId++;
-            return true;
+        patientsFileLock.readLock().lock();
+        try {
+            if (patients.insert(patient) >= 0) {
+                nextPatientId.incrementAndGet();
+                return true;
+            }
+            return false;
+        } finally {
+            patientsFileLock.readLock().unlock();
         }
-        return false;
     }
 
     public boolean removePcrTest(int id) {
-        PcrTest t = new PcrTest(id);
-        boolean removed = pcrTests.delete(t);
+        // test is found before delete, its patient is needed for lock and update
+        PcrTest test = findPcrTest(id);
+        if (test == null) {
+            return false;
+        }
+
+        String patientId = test.getPatientId();
+        ReentrantLock patientLock = patientLock(patientId);
+        patientLock.lock();
+        try {
+            boolean removed = pcrTests.delete(test);
 
-        if (removed) {
-            // remove test from patient
-            PcrTest test = findPcrTest(id);
-            if (test != null) {
-                String patientId = test.getPatientId();
+            if (removed) {
+                // remove test from patient
                 Patient patient = findPatient(patientId);
                 if (patient != null) {
                     patient.removeTest(test);
                     editPatient(patient);
                 }
             }
-        }
 
-        return removed;
+            return removed;
+        } finally {
+            patientLock.unlock();
+        }
     }
 
     public boolean removePatient(String id) {
         Patient p = new Patient(id);
-        // remove all tests
-        Patient patient = findPatient(id);
-        if (patient != null) {
-            ArrayList<Integer> tests = patient.getTests();
-            for (Integer testId : tests) {
-                PcrTest test = new PcrTest(testId);
-                removePcrTest(test.getTestId());
+        ReentrantLock patientLock = patientLock(id);
+        patientLock.lock();
+        try {
+            // remove all tests
+            Patient patient = findPatient(id);
+            if (patient != null) {
+                ArrayList<Integer> tests = patient.getTests();
+                for (Integer testId : tests) {
+                    PcrTest test = new PcrTest(testId);
+                    removePcrTest(test.getTestId());
+                }
             }
-        }
 
-        return patients.delete(p);
+            patientsFileLock.readLock().lock();
+            try {
+                return patients.delete(p);
+            } finally {
+                patientsFileLock.readLock().unlock();
+            }
+        } finally {
+            patientLock.unlock();
+        }
     }
 
     public boolean editPatient(Patient patient) {
-        return patients.edit(patient);
+        ReentrantLock patientLock = patientLock(patient.getPatientId());
+        patientLock.lock();
+        patientsFileLock.readLock().lock();
+        try {
+            return patients.edit(patient);
+        } finally {
+            patientsFileLock.readLock().unlock();
+            patientLock.unlock();
+        }
     }
 
     public boolean editPcrTest(PcrTest pcrTest) {
@@ -203,30 +288,43 @@ public class WhoSystem {
             return pcrTests.edit(pcrTest);
         }
 
-        // patient ID change
-        Patient oldPatient = findPatient(oldPatientId);
-        if (oldPatient == null) {
-            return false;
+        // patient ID change, locks taken in stripe order
+        ReentrantLock firstLock = patientLock(oldPatientId);
+        ReentrantLock secondLock = patientLock(newPatientId);
+        if (patientStripe(newPatientId) < patientStripe(oldPatientId)) {
+            firstLock = patientLock(newPatientId);
+            secondLock = patientLock(oldPatientId);
         }
+        firstLock.lock();
+        secondLock.lock();
+        try {
+            Patient oldPatient = findPatient(oldPatientId);
+            if (oldPatient == null) {
+                return false;
+            }
 
-        Patient newPatient = findPatient(newPatientId);
-        if (newPatient == null) {
-            return false;
-        }
+            Patient newPatient = findPatient(newPatientId);
+            if (newPatient == null) {
+                return false;
+            }
 
-        if (!newPatient.insertTest(pcrTest)) {
-            return false; // test limit
-        }
+            if (!newPatient.insertTest(pcrTest)) {
+                return false; // test limit
+            }
 
-        oldPatient.removeTest(pcrTest);
+            oldPatient.removeTest(pcrTest);
 
-        // update patients
-        if (!editPatient(oldPatient) || !editPatient(newPatient)) {
-            return false; // Failed to update patients
-        }
+            // update patients
+            if (!editPatient(oldPatient) || !editPatient(newPatient)) {
+                return false; // Failed to update patients
+            }
 
-        // update test
-        return pcrTests.edit(pcrTest);
+            // update test
+            return pcrTests.edit(pcrTest);
+        } finally {
+            secondLock.unlock();
+            firstLock.unlock();
+        }
     }
 
     public boolean canTransferTest(int testId, String oldPatientId, String newPatientId) {
@@ -245,8 +343,8 @@ public class WhoSystem {
 
     public boolean saveMetadata(String systemName) {
         try (PrintWriter writer = new PrintWriter(new FileWriter(systemName + "_meta.txt"))) {
-            writer.println(nextPatientId);
-            writer.println(nextPcrTestId);
+            writer.println(nextPatientId.get());
+            writer.println(nextPcrTestId.get());
             writer.println(blockSize);
             writer.println(overflowBlockSize);
             return true;
@@ -264,15 +362,17 @@ public class WhoSystem {
         }
 
         try (BufferedReader reader = new BufferedReader(new FileReader(metaFile))) {
-            nextPatientId = Integer.parseInt(reader.readLine());
-            nextPcrTestId = Integer.parseInt(reader.readLine());
+            nextPatientId.set(Integer.parseInt(reader.readLine()));
+            nextPcrTestId.set(Integer.parseInt(reader.readLine()));
             blockSize = Integer.parseInt(reader.readLine());
             overflowBlockSize = Integer.parseInt(reader.readLine());
 
             // Initialize HashFile objects with loaded parameters
             try {
-                this.patients = new HashFile<>(systemName + "_patients", blockSize, overflowBlockSize, Patient.class);
-                this.pcrTests = new HashFile<>(systemName + "_pcrTests", blockSize, overflowBlockSize, PcrTest.class);
+                this.patients = new HashFile<>(systemName + "_patients", blockSize, overflowBlockSize, Patient.class, createFileOptions());
+                this.pcrTests = new HashFile<>(systemName + "_pcrTests", blockSize, overflowBlockSize, PcrTest.class, createFileOptions());
+                patients.registerMetrics();
+                pcrTests.registerMetrics();
                 return true;
             } catch (IOException e) {
                 System.err.println("Error loading hash files: " + e.getMessage());
@@ -285,9 +385,37 @@ public class WhoSystem {
         }
     }
 
+    private static ReentrantLock[] createPatientLocks() {
+        ReentrantLock[] locks = new ReentrantLock[PATIENT_LOCK_STRIPES];
+        for (int i = 0; i < PATIENT_LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    private int patientStripe(String patientId) {
+        return Math.floorMod(patientId.hashCode(), PATIENT_LOCK_STRIPES);
+    }
+
+    private ReentrantLock patientLock(String patientId) {
+        return patientLocks[patientStripe(patientId)];
+    }
+
+    private FileOptions createFileOptions() {
+        FileOptions options = new FileOptions();
+        options.setBufferPool(bufferPool);
+        options.setBackgroundMaintenance(true); // client threads do not wait for splits and merges
+        return options;
+    }
+
     public void close() {
-        if (patients != null) {
-            patients.close();
+        patientsFileLock.writeLock().lock();
+        try {
+            if (patients != null) {
+                patients.close();
+            }
+        } finally {
+            patientsFileLock.writeLock().unlock();
         }
         if (pcrTests != null) {
             pcrTests.close();
@@ -296,7 +424,12 @@ public class WhoSystem {
     }
 
     public int getPatientCount() {
-        return patients.getRecordCount();
+        patientsFileLock.readLock().lock();
+        try {
+            return patients.getRecordCount();
+        } finally {
+            patientsFileLock.readLock().unlock();
+        }
     }
 
     public int getTestCount() {
@@ -304,11 +437,11 @@ public class WhoSystem {
     }
 
     public int getNextPatientId() {
-        return nextPatientId;
+        return nextPatientId.get();
     }
 
     public int getNextPcrTestId() {
-        return nextPcrTestId;
+        return nextPcrTestId.get();
     }
 
     public String getHashFilesAsString() {
@@ -318,10 +451,15 @@ public class WhoSystem {
 
         sb.append("\n\n#################### PATIENTS HASH FILE ####################\n\n");
         sb.append("Total Patients: ").append(getPatientCount()).append("\n");
-        if (patients != null) {
-            sb.append(patients.toString());
-        } else {
-            sb.append("Patients file not initialized\n");
+        patientsFileLock.readLock().lock();
+        try {
+            if (patients != null) {
+                sb.append(patients.toString());
+            } else {
+                sb.append("Patients file not initialized\n");
+            }
+        } finally {
+            patientsFileLock.readLock().unlock();
         }
 
         sb.append("\n\n#################### PCR TESTS HASH FILE ####################\n\n");
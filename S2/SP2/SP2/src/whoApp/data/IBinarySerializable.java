@@ -1,7 +1,15 @@
 package whoApp.data;
 
+import java.nio.ByteBuffer;
+
 public interface IBinarySerializable<T> {
     int getSize();
     byte[] getBytes();
     T fromBytes(byte[] bytes);
+
+    // writes getSize() bytes at buffer position
+    void writeTo(ByteBuffer buffer);
+
+    // reads getSize() bytes from absolute offset, buffer position is not changed
+    T readFrom(ByteBuffer buffer, int offset);
 }
\ No newline at end of file
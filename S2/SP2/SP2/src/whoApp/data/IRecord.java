@@ -1,6 +1,16 @@
 package whoApp.data;
 
+import java.nio.ByteBuffer;
+
 public interface IRecord<T> extends IBinarySerializable<T> {
     boolean isEqualTo(T other);
     T createClass();
+
+    // serialized key position, records with equal key bytes are equal, -1 = only isEqualTo
+    int getKeyOffset();
+
+    int getKeyLength();
+
+    // writes the same getKeyLength() bytes as writeTo does at getKeyOffset(), not called when offset is -1
+    void writeKeyTo(ByteBuffer buffer);
 }
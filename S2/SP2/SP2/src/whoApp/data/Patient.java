@@ -1,11 +1,12 @@
 package whoApp.data;
 
-import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 
-public class Patient implements IRecord<Patient> {
+public final class Patient implements IRecord<Patient> {
     private String firstName;
     private String lastName;
     private LocalDate birthDate;
@@ -132,107 +133,95 @@ public class Patient implements IRecord<Patient> {
 
     @Override
     public byte[] getBytes() {
-        ByteArrayOutputStream hlpByteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream hlpOutStream = new DataOutputStream(hlpByteArrayOutputStream);
-
-        try {
-            // Personal information
-            hlpOutStream.writeInt(firstNameLength);
-            hlpOutStream.writeChars(padString(firstName, MAX_FIRST_NAME_LENGTH));
-
-            hlpOutStream.writeInt(lastNameLength);
-            hlpOutStream.writeChars(padString(lastName, MAX_LAST_NAME_LENGTH));
-
-            hlpOutStream.writeChars(padString(birthDate.format(DATE_FORMATTER), MAX_BIRTH_DATE_LENGTH));
-
-            hlpOutStream.writeInt(patientIdLength);
-            hlpOutStream.writeChars(padString(patientId, MAX_PATIENT_ID_LENGTH));
-
-            // Test information
-            hlpOutStream.writeInt(testCount);
-            for (int i = 0; i < MAX_TESTS; i++) {
-                if (i < testIds.size()) {
-                    hlpOutStream.writeInt(testIds.get(i));
-                } else {
-                    hlpOutStream.writeInt(-1); // Prázdne miesto
-                }
-            }
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion to byte array.");
-        }
-
-        return hlpByteArrayOutputStream.toByteArray();
+        byte[] bytes = new byte[getSize()];
+        writeTo(ByteBuffer.wrap(bytes));
+        return bytes;
     }
 
     @Override
     public Patient fromBytes(byte[] bytes) {
-        ByteArrayInputStream hlpByteArrayInputStream = new ByteArrayInputStream(bytes);
-        DataInputStream hlpInStream = new DataInputStream(hlpByteArrayInputStream);
-
-        try {
-            // Personal information
-            this.firstNameLength = hlpInStream.readInt();
-            this.firstName = "";
-            for (int i = 0; i < MAX_FIRST_NAME_LENGTH; i++) {
-                if (i < firstNameLength) {
-                    this.firstName += hlpInStream.readChar();
-                } else {
-                    hlpInStream.readChar();
-                }
-            }
+        return readFrom(ByteBuffer.wrap(bytes), 0);
+    }
 
-            this.lastNameLength = hlpInStream.readInt();
-            this.lastName = "";
-            for (int i = 0; i < MAX_LAST_NAME_LENGTH; i++) {
-                if (i < lastNameLength) {
-                    this.lastName += hlpInStream.readChar();
-                } else {
-                    hlpInStream.readChar();
-                }
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        // Personal information
+        buffer.putInt(firstNameLength);
+        RecordCodec.putPaddedChars(buffer, firstName, MAX_FIRST_NAME_LENGTH);
+
+        buffer.putInt(lastNameLength);
+        RecordCodec.putPaddedChars(buffer, lastName, MAX_LAST_NAME_LENGTH);
+
+        putDate(buffer, birthDate);
+
+        buffer.putInt(patientIdLength);
+        RecordCodec.putPaddedChars(buffer, patientId, MAX_PATIENT_ID_LENGTH);
+
+        // Test information
+        buffer.putInt(testCount);
+        for (int i = 0; i < MAX_TESTS; i++) {
+            if (i < testIds.size()) {
+                buffer.putInt(testIds.get(i));
+            } else {
+                buffer.putInt(-1); // Prázdne miesto
             }
+        }
+    }
 
-            String dateStr = "";
-            for (int i = 0; i < MAX_BIRTH_DATE_LENGTH; i++) {
-                dateStr += hlpInStream.readChar();
-            }
-            dateStr = dateStr.trim();
-
-            try {
-                if (!dateStr.isEmpty() && dateStr.length() >= 10) {
-                    this.birthDate = LocalDate.parse(dateStr, DATE_FORMATTER);
-                } else {
-                    this.birthDate = LocalDate.of(1, 1, 1);
-                }
-            } catch (Exception e) {
-                this.birthDate = LocalDate.of(1, 1, 1);
+    @Override
+    public Patient readFrom(ByteBuffer buffer, int offset) {
+        int position = offset;
+
+        // Personal information
+        this.firstNameLength = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.firstName = RecordCodec.getChars(buffer, position, firstNameLength, MAX_FIRST_NAME_LENGTH);
+        position += Character.BYTES * MAX_FIRST_NAME_LENGTH;
+
+        this.lastNameLength = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.lastName = RecordCodec.getChars(buffer, position, lastNameLength, MAX_LAST_NAME_LENGTH);
+        position += Character.BYTES * MAX_LAST_NAME_LENGTH;
+
+        this.birthDate = getDate(buffer, position);
+        position += Character.BYTES * MAX_BIRTH_DATE_LENGTH;
+
+        this.patientIdLength = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.patientId = RecordCodec.getChars(buffer, position, patientIdLength, MAX_PATIENT_ID_LENGTH);
+        position += Character.BYTES * MAX_PATIENT_ID_LENGTH;
+
+        // Test information
+        this.testCount = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.testIds = new ArrayList<>(MAX_TESTS);
+        for (int i = 0; i < MAX_TESTS; i++) {
+            int testId = buffer.getInt(position);
+            if (testId != -1 && i < testCount) {
+                testIds.add(testId);
             }
+            position += Integer.BYTES;
+        }
 
-            this.patientIdLength = hlpInStream.readInt();
-            this.patientId = "";
-            for (int i = 0; i < MAX_PATIENT_ID_LENGTH; i++) {
-                if (i < patientIdLength) {
-                    this.patientId += hlpInStream.readChar();
-                } else {
-                    hlpInStream.readChar();
-                }
-            }
+        return this;
+    }
 
-            // Test information
-            this.testCount = hlpInStream.readInt();
-            this.testIds = new ArrayList<>();
-            for (int i = 0; i < MAX_TESTS; i++) {
-                int testId = hlpInStream.readInt();
-                if (testId != -1 && i < testCount) {
-                    testIds.add(testId);
-                }
-            }
+    @Override
+    public int getKeyOffset() {
+        // firstName, lastName, birthDate
+        return Integer.BYTES * 2 + Character.BYTES * (MAX_FIRST_NAME_LENGTH + MAX_LAST_NAME_LENGTH + MAX_BIRTH_DATE_LENGTH);
+    }
 
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion from byte array.");
-        }
+    @Override
+    public int getKeyLength() {
+        // patientIdLength + patientId
+        return Integer.BYTES + Character.BYTES * MAX_PATIENT_ID_LENGTH;
+    }
 
-        return this;
+    @Override
+    public void writeKeyTo(ByteBuffer buffer) {
+        buffer.putInt(patientIdLength);
+        RecordCodec.putPaddedChars(buffer, patientId, MAX_PATIENT_ID_LENGTH);
     }
 
     @Override
@@ -268,10 +257,34 @@ public class Patient implements IRecord<Patient> {
         return this.patientId.hashCode();
     }
 
-    private String padString(String str, int length) {
-        if (str == null) return " ".repeat(length);
-        if (str.length() > length) return str.substring(0, length);
-        return String.format("%-" + length + "s", str);
+    // yyyy-MM-dd, same as DATE_FORMATTER
+    private static void putDate(ByteBuffer buffer, LocalDate date) {
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            RecordCodec.putPaddedChars(buffer, date.format(DATE_FORMATTER), MAX_BIRTH_DATE_LENGTH);
+            return;
+        }
+        RecordCodec.putDigits(buffer, year, 4);
+        buffer.putChar('-');
+        RecordCodec.putDigits(buffer, date.getMonthValue(), 2);
+        buffer.putChar('-');
+        RecordCodec.putDigits(buffer, date.getDayOfMonth(), 2);
+    }
+
+    private static LocalDate getDate(ByteBuffer buffer, int offset) {
+        int year = RecordCodec.getDigits(buffer, offset, 4);
+        int month = RecordCodec.getDigits(buffer, offset + 5 * Character.BYTES, 2);
+        int day = RecordCodec.getDigits(buffer, offset + 8 * Character.BYTES, 2);
+        if (year < 0 || month < 0 || day < 0
+                || buffer.getChar(offset + 4 * Character.BYTES) != '-'
+                || buffer.getChar(offset + 7 * Character.BYTES) != '-') {
+            return LocalDate.of(1, 1, 1);
+        }
+        try {
+            return LocalDate.of(year, month, day);
+        } catch (DateTimeException e) {
+            return LocalDate.of(1, 1, 1);
+        }
     }
 
     private String cutString(String str, int length) {
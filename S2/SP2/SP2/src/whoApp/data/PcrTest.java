@@ -1,10 +1,11 @@
 package whoApp.data;
 
-import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
-public class PcrTest implements IRecord<PcrTest>  {
+public final class PcrTest implements IRecord<PcrTest>  {
 
     private int testId;
     private String patientId;
@@ -130,6 +131,22 @@ public class PcrTest implements IRecord<PcrTest>  {
         return this.testId == other.testId;
     }
 
+    @Override
+    public int getKeyOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getKeyLength() {
+        // testId
+        return Integer.BYTES;
+    }
+
+    @Override
+    public void writeKeyTo(ByteBuffer buffer) {
+        buffer.putInt(testId);
+    }
+
     @Override
     public PcrTest createClass() {
         return new PcrTest();
@@ -149,90 +166,97 @@ public class PcrTest implements IRecord<PcrTest>  {
 
     @Override
     public byte[] getBytes() {
-        ByteArrayOutputStream hlpByteArrayOutputStream = new ByteArrayOutputStream();
-        DataOutputStream hlpOutStream = new DataOutputStream(hlpByteArrayOutputStream);
+        byte[] bytes = new byte[getSize()];
+        writeTo(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
 
-        try {
-            hlpOutStream.writeInt(testId);
+    @Override
+    public PcrTest fromBytes(byte[] bytes) {
+        return readFrom(ByteBuffer.wrap(bytes), 0);
+    }
 
-            hlpOutStream.writeInt(patientIdLength);
-            hlpOutStream.writeChars(padString(patientId, MAX_PATIENT_ID_LENGTH));
+    @Override
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(testId);
 
-            // Serialize LocalDateTime as ISO string
-            String dateTimeStr = testDateTime.format(DATE_TIME_FORMATTER);
-            hlpOutStream.writeChars(dateTimeStr);
+        buffer.putInt(patientIdLength);
+        RecordCodec.putPaddedChars(buffer, patientId, MAX_PATIENT_ID_LENGTH);
 
-            hlpOutStream.writeBoolean(result);
+        // LocalDateTime as yyyy-MM-dd HH:mm:ss
+        putDateTime(buffer, testDateTime);
 
-            hlpOutStream.writeDouble(testValue);
+        buffer.put((byte) (result ? 1 : 0));
 
-            hlpOutStream.writeInt(noteLength);
-            hlpOutStream.writeChars(padString(note, MAX_NOTE_LENGTH));
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion to byte array.");
-        }
+        buffer.putDouble(testValue);
 
-        return hlpByteArrayOutputStream.toByteArray();
+        buffer.putInt(noteLength);
+        RecordCodec.putPaddedChars(buffer, note, MAX_NOTE_LENGTH);
     }
 
     @Override
-    public PcrTest fromBytes(byte[] bytes) {
-        ByteArrayInputStream hlpByteArrayInputStream = new ByteArrayInputStream(bytes);
-        DataInputStream hlpInStream = new DataInputStream(hlpByteArrayInputStream);
+    public PcrTest readFrom(ByteBuffer buffer, int offset) {
+        int position = offset;
 
-        try {
-            this.testId = hlpInStream.readInt();
-
-            this.patientIdLength = hlpInStream.readInt();
-            this.patientId = "";
-            for (int i = 0; i < MAX_PATIENT_ID_LENGTH; i++) {
-                if (i < patientIdLength) {
-                    this.patientId += hlpInStream.readChar();
-                } else {
-                    hlpInStream.readChar();
-                }
-            }
-
-            String dateTimeStr = "";
-            for (int i = 0; i < MAX_DATE_TIME_LENGTH; i++) {
-                dateTimeStr += hlpInStream.readChar();
-            }
-            dateTimeStr = dateTimeStr.trim();
-            try {
-                if (!dateTimeStr.isEmpty()) {
-                    this.testDateTime = LocalDateTime.parse(dateTimeStr, DATE_TIME_FORMATTER);
-                } else {
-                    this.testDateTime = LocalDateTime.of(1, 1, 1, 0, 0, 0);
-                }
-            } catch (Exception e) {
-                this.testDateTime = LocalDateTime.of(1, 1, 1, 0, 0, 0);
-            }
-
-            this.result = hlpInStream.readBoolean();
-
-            this.testValue = hlpInStream.readDouble();
-
-            this.noteLength = hlpInStream.readInt();
-            this.note = "";
-            for (int i = 0; i < MAX_NOTE_LENGTH; i++) {
-                if (i < noteLength) {
-                    this.note += hlpInStream.readChar();
-                } else {
-                    hlpInStream.readChar();
-                }
-            }
-
-        } catch (IOException e) {
-            throw new IllegalStateException("Error during conversion from byte array.");
-        }
+        this.testId = buffer.getInt(position);
+        position += Integer.BYTES;
+
+        this.patientIdLength = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.patientId = RecordCodec.getChars(buffer, position, patientIdLength, MAX_PATIENT_ID_LENGTH);
+        position += Character.BYTES * MAX_PATIENT_ID_LENGTH;
+
+        this.testDateTime = getDateTime(buffer, position);
+        position += Character.BYTES * MAX_DATE_TIME_LENGTH;
+
+        this.result = buffer.get(position) != 0;
+        position += 1;
+
+        this.testValue = buffer.getDouble(position);
+        position += Double.BYTES;
+
+        this.noteLength = buffer.getInt(position);
+        position += Integer.BYTES;
+        this.note = RecordCodec.getChars(buffer, position, noteLength, MAX_NOTE_LENGTH);
 
         return this;
     }
 
-    private String padString(String str, int length) {
-        if (str == null) return " ".repeat(length);
-        if (str.length() > length) return str.substring(0, length);
-        return String.format("%-" + length + "s", str);
+    // yyyy-MM-dd HH:mm:ss, same as DATE_TIME_FORMATTER
+    private static void putDateTime(ByteBuffer buffer, LocalDateTime dateTime) {
+        int year = dateTime.getYear();
+        if (year < 0 || year > 9999) {
+            RecordCodec.putPaddedChars(buffer, dateTime.format(DATE_TIME_FORMATTER), MAX_DATE_TIME_LENGTH);
+            return;
+        }
+        RecordCodec.putDigits(buffer, year, 4);
+        buffer.putChar('-');
+        RecordCodec.putDigits(buffer, dateTime.getMonthValue(), 2);
+        buffer.putChar('-');
+        RecordCodec.putDigits(buffer, dateTime.getDayOfMonth(), 2);
+        buffer.putChar(' ');
+        RecordCodec.putDigits(buffer, dateTime.getHour(), 2);
+        buffer.putChar(':');
+        RecordCodec.putDigits(buffer, dateTime.getMinute(), 2);
+        buffer.putChar(':');
+        RecordCodec.putDigits(buffer, dateTime.getSecond(), 2);
+    }
+
+    private static LocalDateTime getDateTime(ByteBuffer buffer, int offset) {
+        int year = RecordCodec.getDigits(buffer, offset, 4);
+        int month = RecordCodec.getDigits(buffer, offset + 5 * Character.BYTES, 2);
+        int day = RecordCodec.getDigits(buffer, offset + 8 * Character.BYTES, 2);
+        int hour = RecordCodec.getDigits(buffer, offset + 11 * Character.BYTES, 2);
+        int minute = RecordCodec.getDigits(buffer, offset + 14 * Character.BYTES, 2);
+        int second = RecordCodec.getDigits(buffer, offset + 17 * Character.BYTES, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return LocalDateTime.of(1, 1, 1, 0, 0, 0);
+        }
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second);
+        } catch (DateTimeException e) {
+            return LocalDateTime.of(1, 1, 1, 0, 0, 0);
+        }
     }
 
     private String cutString(String str, int length) {
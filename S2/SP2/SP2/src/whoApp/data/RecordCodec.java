@@ -0,0 +1,48 @@
+package whoApp.data;
+
+import java.nio.ByteBuffer;
+
+// fixed width char fields of records, strings are padded with spaces, numbers are written as digit chars
+final class RecordCodec {
+    private RecordCodec() {
+    }
+
+    static void putPaddedChars(ByteBuffer buffer, String str, int length) {
+        int strLength = str == null ? 0 : Math.min(str.length(), length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(i < strLength ? str.charAt(i) : ' ');
+        }
+    }
+
+    static String getChars(ByteBuffer buffer, int offset, int strLength, int length) {
+        int count = Math.max(0, Math.min(strLength, length));
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = buffer.getChar(offset + i * Character.BYTES);
+        }
+        return new String(chars);
+    }
+
+    static void putDigits(ByteBuffer buffer, int value, int count) {
+        int divisor = 1;
+        for (int i = 1; i < count; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.putChar((char) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    // -1 if not a number
+    static int getDigits(ByteBuffer buffer, int offset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            char c = buffer.getChar(offset + i * Character.BYTES);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}